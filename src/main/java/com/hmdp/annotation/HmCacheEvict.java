@@ -0,0 +1,18 @@
+package com.hmdp.annotation;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Feat: Evict the cache from Redis and the local cache of all nodes after the method returns
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmCacheEvict {
+    String prefix();
+    
+    // SpEL evaluated against the method arguments, e.g. "#shop.id"
+    String key();
+}
@@ -0,0 +1,33 @@
+package com.hmdp.annotation;
+
+import com.hmdp.utils.CacheStrategy;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+// Feat: Cache the return value of a method with CacheUtils, the cache key is prefix + the value of the SpEL key
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmCacheable {
+    String prefix();
+    
+    // SpEL evaluated against the method arguments, e.g. "#id"
+    String key();
+    
+    CacheStrategy strategy() default CacheStrategy.MUTEX;
+    
+    long ttl() default 30L;
+    
+    // A random extra TTL in [0, jitter], keys loaded together do not expire together
+    long jitter() default 0L;
+    
+    TimeUnit unit() default TimeUnit.MINUTES;
+    
+    // Store a blank value when the method returns null to prevent cache penetration
+    boolean cacheNull() default true;
+}
@@ -0,0 +1,128 @@
+package com.hmdp.aspect;
+
+import cn.hutool.core.convert.Convert;
+import com.hmdp.annotation.HmCacheEvict;
+import com.hmdp.annotation.HmCacheable;
+import com.hmdp.utils.CacheUtils;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+// Feat: Route @HmCacheable and @HmCacheEvict through CacheUtils, instead of copying the cache aside code into every service
+@Aspect
+@Component
+public class HmCacheAspect {
+    @Autowired
+    CacheUtils cacheUtils;
+    
+    private final SpelExpressionParser parser = new SpelExpressionParser();
+    private final ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+    private final Map<String, Expression> expressionCache = new ConcurrentHashMap<>();
+    
+    @Around("@annotation(hmCacheable)")
+    @SuppressWarnings("unchecked")
+    public Object cacheable(ProceedingJoinPoint joinPoint, HmCacheable hmCacheable) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Object id = evaluateKey(hmCacheable.key(), joinPoint, method);
+        Class<Object> type = (Class<Object>) method.getReturnType();
+        long ttl = hmCacheable.ttl() + (hmCacheable.jitter() > 0 ? ThreadLocalRandom.current().nextLong(hmCacheable.jitter() + 1) : 0);
+        
+        // The method is the DB fallback, a checked exception is carried out of the Function and rethrown
+        Function<Object, Object> dbFallback = (key) -> {
+            try {
+                return joinPoint.proceed();
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new FallbackException(e);
+            }
+        };
+        
+        try {
+            Object data;
+            switch (hmCacheable.strategy()) {
+                case PASS_THROUGH:
+                    data = cacheUtils.queryWithPassThrough(hmCacheable.prefix(), id, type, ttl, hmCacheable.unit(), dbFallback, hmCacheable.cacheNull());
+                    break;
+                case LOGICAL_EXPIRATION:
+                    data = cacheUtils.queryWithLogicalExpiration(hmCacheable.prefix(), id, type, ttl, hmCacheable.unit(), dbFallback);
+                    // The logical expiration expects a warmed cache, load it on the first miss
+                    if (data == null) {
+                        data = dbFallback.apply(id);
+                        if (data != null) {
+                            cacheUtils.setWithLogicalExpiration(hmCacheable.prefix() + id, data, ttl, hmCacheable.unit());
+                        }
+                    }
+                    break;
+                default:
+                    data = cacheUtils.queryWithMutex(hmCacheable.prefix(), id, type, ttl, hmCacheable.unit(), dbFallback, hmCacheable.cacheNull());
+            }
+            return convert(data, method);
+        } catch (FallbackException e) {
+            throw e.getCause();
+        }
+    }
+    
+    // Inside a transaction the key is evicted after the commit, otherwise a concurrent read could cache the uncommitted state again
+    @Around("@annotation(hmCacheEvict)")
+    public Object cacheEvict(ProceedingJoinPoint joinPoint, HmCacheEvict hmCacheEvict) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Object res = joinPoint.proceed();
+        String key = hmCacheEvict.prefix() + evaluateKey(hmCacheEvict.key(), joinPoint, method);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    cacheUtils.evict(key);
+                }
+            });
+        } else {
+            cacheUtils.evict(key);
+        }
+        return res;
+    }
+    
+    private Object evaluateKey(String key, ProceedingJoinPoint joinPoint, Method method) {
+        Expression expression = expressionCache.computeIfAbsent(key, parser::parseExpression);
+        MethodBasedEvaluationContext context = new MethodBasedEvaluationContext(
+            joinPoint.getTarget(),
+            method,
+            joinPoint.getArgs(),
+            parameterNameDiscoverer
+        );
+        return expression.getValue(context);
+    }
+    
+    // JSON keeps no element types, the elements of e.g. List<Voucher> come back as JSONObject
+    private Object convert(Object data, Method method) {
+        Type returnType = method.getGenericReturnType();
+        if (data == null || !(returnType instanceof ParameterizedType)) {
+            return data;
+        }
+        return Convert.convert(returnType, data);
+    }
+    
+    private static class FallbackException extends RuntimeException {
+        FallbackException(Throwable cause) {
+            super(cause);
+        }
+    }
+}
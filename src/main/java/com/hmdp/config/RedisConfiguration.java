@@ -1,5 +1,9 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.LocalCache;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import com.hmdp.utils.ShopBloomFilter;
+import com.hmdp.utils.ShopTypeSnapshot;
 import io.lettuce.core.RedisClient;
 import org.redisson.Redisson;
 import org.redisson.RedissonBloomFilter;
@@ -11,9 +15,17 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATION_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SHOP_BLOOM_FILTER_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SHOP_TYPE_VERSION_CHANNEL;
+
 @Configuration
 public class RedisConfiguration {
     @Bean
@@ -32,6 +44,16 @@ public class RedisConfiguration {
         return redisTemplate;
     }
     
+    // Feat: Template for cache values encoded by CacheCodec
+    @Bean
+    public RedisTemplate<String, byte[]> byteRedisTemplate(RedisConnectionFactory redisConnectionFactory) {
+        RedisTemplate<String, byte[]> byteRedisTemplate = new RedisTemplate<>();
+        byteRedisTemplate.setConnectionFactory(redisConnectionFactory);
+        byteRedisTemplate.setKeySerializer(new StringRedisSerializer());
+        byteRedisTemplate.setValueSerializer(RedisSerializer.byteArray());
+        return byteRedisTemplate;
+    }
+    
     @Bean
     public RedissonClient redissonClient() {
         Config config = new Config();
@@ -47,4 +69,17 @@ public class RedisConfiguration {
         bloomFilter.tryInit(1000000, 0.01);
         return bloomFilter;
     }
+    
+    // Feat: Subscribe to the invalidation channel of the local cache, the new shops of the Bloom filter, the shop type version
+    //  and the sold out vouchers
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory redisConnectionFactory, LocalCache localCache, ShopBloomFilter shopBloomFilter, ShopTypeSnapshot shopTypeSnapshot, SeckillSoldOutRegistry seckillSoldOutRegistry) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(redisConnectionFactory);
+        container.addMessageListener(localCache, new ChannelTopic(CACHE_INVALIDATION_CHANNEL));
+        container.addMessageListener(shopBloomFilter, new ChannelTopic(SHOP_BLOOM_FILTER_CHANNEL));
+        container.addMessageListener(shopTypeSnapshot, new ChannelTopic(SHOP_TYPE_VERSION_CHANNEL));
+        container.addMessageListener(seckillSoldOutRegistry, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+        return container;
+    }
 }
@@ -2,6 +2,7 @@ package com.hmdp.config;
 
 import com.hmdp.interceptor.LoginCheckInterceptor;
 import com.hmdp.interceptor.RefreshTokenInterceptor;
+import com.hmdp.interceptor.SeckillAdmissionInterceptor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -13,8 +14,10 @@ public class WebConfiguration implements WebMvcConfigurer {
     RefreshTokenInterceptor refreshTokenInterceptor;
     @Autowired
     LoginCheckInterceptor loginCheckInterceptor;
+    @Autowired
+    SeckillAdmissionInterceptor seckillAdmissionInterceptor;
     
-    // Feat: Login authorization with Redis, refresh token -> login check
+    // Feat: Login authorization with Redis, refresh token -> login check -> seckill admission
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         registry.addInterceptor(refreshTokenInterceptor)
@@ -32,5 +35,8 @@ public class WebConfiguration implements WebMvcConfigurer {
                     "/voucher/**"
                 )
                 .order(1);
+        registry.addInterceptor(seckillAdmissionInterceptor)
+                .addPathPatterns("/voucher-order/seckill/**")
+                .order(2);
     }
 }
\ No newline at end of file
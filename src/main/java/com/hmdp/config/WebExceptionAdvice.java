@@ -1,6 +1,7 @@
 package com.hmdp.config;
 
 import com.hmdp.dto.Result;
+import com.hmdp.utils.CacheBusyException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
@@ -9,6 +10,13 @@ import org.springframework.web.bind.annotation.RestControllerAdvice;
 @RestControllerAdvice
 public class WebExceptionAdvice {
 
+    // Feat: A cache rebuild that takes too long is a busy failure, the client may retry
+    @ExceptionHandler(CacheBusyException.class)
+    public Result handleCacheBusyException(CacheBusyException e) {
+        log.warn(e.getMessage());
+        return Result.fail("System busy");
+    }
+    
     @ExceptionHandler(RuntimeException.class)
     public Result handleRuntimeException(RuntimeException e) {
         log.error(e.toString(), e);
@@ -0,0 +1,61 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.CacheWarmUpRunner;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.ShopBloomFilter;
+import com.hmdp.utils.ShopTypeSnapshot;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Feat: Expose the cache metrics to tune the TTLs and the strategy of each key prefix
+@RestController
+@RequestMapping("/admin/cache")
+public class CacheAdminController {
+    @Resource
+    private CacheMetrics cacheMetrics;
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+    @Resource
+    private CacheWarmUpRunner cacheWarmUpRunner;
+    @Resource
+    private ShopBloomFilter shopBloomFilter;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+    @Resource
+    private ShopTypeSnapshot shopTypeSnapshot;
+    
+    @GetMapping("metrics")
+    public Result queryMetrics() {
+        Map<String, Object> warmUp = new LinkedHashMap<>();
+        warmUp.put("status", cacheWarmUpRunner.getStatus());
+        warmUp.put("warmedShopCount", cacheWarmUpRunner.getWarmedShopCount());
+        
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("prefixes", cacheMetrics.snapshot());
+        metrics.put("compression", cacheMetrics.compressionSnapshot());
+        metrics.put("rebuildExecutor", cacheRebuildExecutor.metrics());
+        metrics.put("warmUp", warmUp);
+        metrics.put("shopBloomFilter", shopBloomFilter.metrics());
+        return Result.ok(metrics);
+    }
+    
+    // Call after changing tb_shop_type, every node swaps its snapshot
+    @PostMapping("shop-type/refresh")
+    public Result refreshShopType() {
+        return Result.ok(shopTypeSnapshot.publishChange());
+    }
+    
+    @GetMapping("hot-keys")
+    public Result queryHotKeys() {
+        return Result.ok(hotKeyDetector.hotKeys());
+    }
+}
@@ -0,0 +1,59 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.SeckillOrderPipeline;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+// Feat: Expose the lag and the pending entries of the order stream
+//  Under /admin, the paths here always pass the login check, unlike /voucher/** which is open
+@RestController
+@RequestMapping("/admin/seckill")
+public class SeckillAdminController {
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private IVoucherService voucherService;
+    @Resource
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+    @Resource
+    private SeckillAdmission seckillAdmission;
+    @Resource
+    private SeckillOrderPipeline seckillOrderPipeline;
+    
+    @GetMapping("stream")
+    public Result queryStreamMetrics() {
+        return Result.ok(voucherOrderService.streamMetrics());
+    }
+    
+    @GetMapping("sold-out")
+    public Result querySoldOut() {
+        return Result.ok(seckillSoldOutRegistry.metrics());
+    }
+    
+    @GetMapping("admission")
+    public Result queryAdmission() {
+        return Result.ok(seckillAdmission.metrics());
+    }
+    
+    @GetMapping("pipeline")
+    public Result queryPipeline() {
+        return Result.ok(seckillOrderPipeline.metrics());
+    }
+    
+    @PutMapping("voucher/{id}/stock")
+    public Result replenishSeckillStock(@PathVariable("id") Long voucherId, @RequestParam("amount") Integer amount) {
+        voucherService.replenishSeckillStock(voucherId, amount);
+        return Result.ok();
+    }
+}
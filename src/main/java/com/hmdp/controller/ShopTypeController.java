@@ -1,9 +1,9 @@
 package com.hmdp.controller;
 
 
-import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.service.IShopTypeService;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
@@ -25,8 +25,9 @@ public class ShopTypeController {
     @Resource
     private IShopTypeService typeService;
 
-    @GetMapping("list")
-    public Result queryTypeList() {
-        return typeService.queryTypeList();
+    // Feat: Write the pre-serialized body as is
+    @GetMapping(value = "list", produces = MediaType.APPLICATION_JSON_VALUE)
+    public byte[] queryTypeList() {
+        return typeService.queryTypeListBody();
     }
 }
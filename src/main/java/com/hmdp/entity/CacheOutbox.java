@@ -0,0 +1,56 @@
+package com.hmdp.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+// Feat: A cache key to delete, written in the same transaction as the change of the entity
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("tb_cache_outbox")
+public class CacheOutbox implements Serializable {
+    private static final long serialVersionUID = 1L;
+    
+    public static final int STATUS_PENDING = 0;
+    public static final int STATUS_FAILED = 1;
+    
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+    
+    /**
+     * 要删除的缓存key
+     */
+    private String cacheKey;
+    
+    /**
+     * 0,待延迟双删; 1,失败
+     */
+    private Integer status;
+    
+    /**
+     * 重试次数
+     */
+    private Integer retryCount;
+    
+    /**
+     * 下次处理时间
+     */
+    private LocalDateTime nextTime;
+    
+    /**
+     * 创建时间
+     */
+    private LocalDateTime createTime;
+    
+    /**
+     * 更新时间
+     */
+    private LocalDateTime updateTime;
+}
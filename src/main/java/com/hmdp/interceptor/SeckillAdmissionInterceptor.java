@@ -0,0 +1,43 @@
+package com.hmdp.interceptor;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.utils.SeckillAdmission;
+import com.hmdp.utils.UserHolder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+@Component
+public class SeckillAdmissionInterceptor implements HandlerInterceptor {
+    @Autowired
+    SeckillAdmission seckillAdmission;
+    
+    // Feat: Admission control of the seckill, the shed requests are answered with 429 before any work is done
+    //  The body is the same Result the frontend gets from the controllers
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        Map<String, String> pathVariables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        if (pathVariables == null || pathVariables.get("id") == null) {
+            return true;
+        }
+        
+        Long voucherId = Long.valueOf(pathVariables.get("id"));
+        if (seckillAdmission.admit(voucherId, UserHolder.getUser().getId()) != SeckillAdmission.Decision.ADMITTED) {
+            response.setStatus(429);
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.setCharacterEncoding("UTF-8");
+            response.getWriter().write(JSONUtil.toJsonStr(Result.fail("System busy")));
+            return false;
+        }
+        
+        return true;
+    }
+}
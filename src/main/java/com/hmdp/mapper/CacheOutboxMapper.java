@@ -0,0 +1,7 @@
+package com.hmdp.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.entity.CacheOutbox;
+
+public interface CacheOutboxMapper extends BaseMapper<CacheOutbox> {
+}
@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -12,5 +15,6 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  * @since 2021-12-22
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
-
+    // Feat: One multi-row INSERT for a batch of orders
+    int insertBatch(@Param("voucherOrderList") List<VoucherOrder> voucherOrderList);
 }
@@ -15,6 +15,8 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IShopService extends IService<Shop> {
     Result queryById(Long id);
     
+    Result saveShop(Shop shop);
+    
     Result update(Shop shop);
     
     Result queryShopByType(Integer typeId, Integer curNo, Double x, Double y);
@@ -14,4 +14,6 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IShopTypeService extends IService<ShopType> {
     Result queryTypeList();
+    
+    byte[] queryTypeListBody();
 }
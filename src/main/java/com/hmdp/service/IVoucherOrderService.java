@@ -4,6 +4,9 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * <p>
  *  服务类
@@ -18,4 +21,8 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result createVoucherOrder(Long voucherId);
     
     void createVoucherOrder(VoucherOrder voucherOrder);
+    
+    void createVoucherOrders(List<VoucherOrder> voucherOrderList);
+    
+    Map<String, Object> streamMetrics();
 }
@@ -2,22 +2,32 @@ package com.hmdp.service.impl;
 
 import com.hmdp.entity.Customer;
 import com.hmdp.utils.RedisBloomFilterUtils;
+import com.hmdp.utils.RedisCountingBloomFilter;
 import com.hmdp.mapper.CustomerMapper;
 import com.hmdp.service.ICustomerService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 
 import static com.hmdp.utils.RedisConstants.CACHE_CUSTOMER_KEY;
+import static com.hmdp.utils.RedisConstants.CUSTOMER_WHITELIST;
 
 @Service
 public class CustomerServiceImpl extends ServiceImpl<CustomerMapper, Customer> implements ICustomerService {
     @Autowired
     RedisTemplate redisTemplate;
     @Autowired
+    RedisCountingBloomFilter redisCountingBloomFilter;
+    @Autowired
     RedisBloomFilterUtils redisBloomFilterUtils;
     
+    // Feat: The whitelist is a counting filter that supports deletes, or an insert-only bitmap filter for fewer bytes
+    //  A deleted customer stays in the bitmap filter, its lookups fall through to the DB like a false positive
+    @Value("${hmdp.bloom-filter.whitelist:counting}")
+    private String whitelist;
+    
     public void add(Customer customer) {
         boolean isSave = save(customer);
         
@@ -28,13 +38,23 @@ public class CustomerServiceImpl extends ServiceImpl<CustomerMapper, Customer> i
         String key = CACHE_CUSTOMER_KEY + customer.getId();
         Customer val = getById(customer.getId());
         redisTemplate.opsForValue().set(key, val);
+        
+        // Add to the whitelist, otherwise the new customer is rejected by the bloom filter
+        if (isBitmapWhitelist()) {
+            redisBloomFilterUtils.add(CUSTOMER_WHITELIST, key);
+        } else {
+            redisCountingBloomFilter.add(CUSTOMER_WHITELIST, key);
+        }
     }
     
     public Customer queryById(Integer id) {
         String key = CACHE_CUSTOMER_KEY + id;
         
         // Check with bloom filter before query
-        if (!redisBloomFilterUtils.check("whitelist", key)) {
+        boolean isMember = isBitmapWhitelist()
+            ? redisBloomFilterUtils.check(CUSTOMER_WHITELIST, key)
+            : redisCountingBloomFilter.check(CUSTOMER_WHITELIST, key);
+        if (!isMember) {
             return null;
         }
         
@@ -47,4 +67,24 @@ public class CustomerServiceImpl extends ServiceImpl<CustomerMapper, Customer> i
         }
         return customer;
     }
+    
+    // Feat: Remove the customer from the whitelist, the counting bloom filter supports deletes
+    //  The filter is only touched once the row is actually deleted, removing a non-member would break other counters
+    public void remove(Integer id) {
+        boolean isRemove = removeById(id);
+        
+        if (!isRemove) {
+            throw new RuntimeException("Failed to remove customer");
+        }
+        
+        String key = CACHE_CUSTOMER_KEY + id;
+        redisTemplate.delete(key);
+        if (!isBitmapWhitelist()) {
+            redisCountingBloomFilter.remove(CUSTOMER_WHITELIST, key);
+        }
+    }
+    
+    private boolean isBitmapWhitelist() {
+        return "bitmap".equals(whitelist);
+    }
 }
@@ -1,5 +1,6 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
@@ -10,8 +11,11 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.CacheInvalidationOutbox;
+import com.hmdp.utils.CacheRebuildExecutor;
 import com.hmdp.utils.CacheUtils;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopBloomFilter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
@@ -24,9 +28,8 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
@@ -46,9 +49,20 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     StringRedisTemplate stringRedisTemplate;
     @Autowired
     CacheUtils cacheUtils;
+    @Autowired
+    CacheRebuildExecutor cacheRebuildExecutor;
+    @Autowired
+    ShopBloomFilter shopBloomFilter;
+    @Autowired
+    CacheInvalidationOutbox cacheInvalidationOutbox;
     
     @Override
     public Result queryById(Long id) {
+        // Feat: Reject the ids that cannot exist before touching Redis or DB
+        if (!shopBloomFilter.mightContain(id)) {
+            return Result.fail("Shop does not exists");
+        }
+        
         Shop shop = queryWithCacheUtils(id);
         return shop != null ? Result.ok(shop) : Result.fail("Shop does not exists");
     }
@@ -144,8 +158,6 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         stringRedisTemplate.delete(key);
     }
     
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-    
     // Feat: Query with logical expiration to avoid cache invalidation
     private Shop queryWithLogicalExpiration(Long id) {
         String key = CACHE_SHOP_KEY + id;
@@ -176,16 +188,21 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
                 return JSONUtil.toBean(shopJson, Shop.class);
             }
             
-            // Open a separate thread to rebuild the cache
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    saveShopToRedis(id, 10L);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
+            // Open a separate thread to rebuild the cache, release the lock if the rebuild is not accepted
+            boolean isSubmitted = false;
+            try {
+                isSubmitted = cacheRebuildExecutor.submit(key, () -> {
+                    try {
+                        saveShopToRedis(id, 10L);
+                    } finally {
+                        unLock(lockKey);
+                    }
+                });
+            } finally {
+                if (!isSubmitted) {
                     unLock(lockKey);
                 }
-            });
+            }
         }
         
         return shop;
@@ -210,11 +227,19 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return cacheUtils.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, CACHE_SHOP_TTL, TimeUnit.MINUTES, this::getById);
     }
     
+    @Override
+    public Result saveShop(Shop shop) {
+        save(shop);
+        shopBloomFilter.publishPut(shop.getId());
+        return Result.ok(shop.getId());
+    }
+    
     @Override
     @Transactional
     public Result update(Shop shop) {
         updateById(shop);
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
+        // Feat: Delete the cache after the commit, then again after a delay, through the outbox
+        cacheInvalidationOutbox.record(CACHE_SHOP_KEY + shop.getId());
         return Result.ok();
     }
     
@@ -271,11 +296,15 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         //     .skip(srtIdx)
         //     .collect(Collectors.toMap((res) -> res.getContent().getName(), GeoResult::getDistance));
         
-        List<Shop> shopList = lambdaQuery()
-            .in(Shop::getId, shopIdList)
-            .last("ORDER BY FIELD (id," + StrUtil.join(",", shopIdList) + ")")
-            .list();
+        // Feat: Query the shops with one MGET, only the misses are loaded from DB
+        List<Shop> shopList = cacheUtils.queryMany(CACHE_SHOP_KEY, shopIdList, Shop.class, CACHE_SHOP_TTL, TimeUnit.MINUTES, ids ->
+            listByIds(ids).stream().collect(Collectors.toMap(Shop::getId, Function.identity()))
+        );
         
+        // Copy before setting the distance, the cached shops are shared
+        shopList = shopList.stream()
+            .map((shop) -> BeanUtil.copyProperties(shop, Shop.class))
+            .collect(Collectors.toList());
         for (Shop shop : shopList) {
             shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
         }
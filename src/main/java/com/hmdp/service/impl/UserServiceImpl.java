@@ -5,12 +5,15 @@ import cn.hutool.core.bean.copier.CopyOptions;
 import cn.hutool.core.lang.Tuple;
 import cn.hutool.core.util.RandomUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.annotation.HmCacheEvict;
+import com.hmdp.annotation.HmCacheable;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheUtils;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RegexUtils;
 import com.hmdp.utils.SystemConstants;
@@ -51,6 +54,23 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Autowired
     StringRedisTemplate stringRedisTemplate;
     
+    @Autowired
+    CacheUtils cacheUtils;
+    
+    // Feat: Cache with annotation, only the public fields of the user are cached, never the password
+    @Override
+    @HmCacheable(prefix = CACHE_USER_KEY, key = "#id", ttl = 30L, jitter = 5L)
+    public UserDTO queryUserById(Long id) {
+        User user = getById(id);
+        return user != null ? BeanUtil.copyProperties(user, UserDTO.class) : null;
+    }
+    
+    @Override
+    @HmCacheEvict(prefix = CACHE_USER_KEY, key = "#entity.id")
+    public boolean updateById(User entity) {
+        return super.updateById(entity);
+    }
+    
     // Feat: Save verification code to Redis
     // Save code to Redis instead of session to achieve data sharing
     @Override
@@ -156,6 +176,8 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         user.setPhone(phone);
         user.setNickName(USER_NICK_NAME_PREFIX + RandomUtil.randomString(10));
         save(user);
+        // A blank value may be cached for the id
+        cacheUtils.evict(CACHE_USER_KEY + user.getId());
         log.debug("Successfully added user, user is {}", user);
         return user;
     }
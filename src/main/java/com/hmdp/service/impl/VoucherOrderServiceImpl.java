@@ -1,6 +1,8 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
@@ -10,25 +12,44 @@ import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
 import com.hmdp.utils.RedisLock;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import com.hmdp.utils.SeckillOrderPipeline;
+import com.hmdp.utils.SeckillStockSegments;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.connection.stream.*;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -51,6 +72,27 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     StringRedisTemplate stringRedisTemplate;
     @Autowired
     RedissonClient redissonClient;
+    @Autowired
+    TransactionTemplate transactionTemplate;
+    @Autowired
+    SeckillSoldOutRegistry seckillSoldOutRegistry;
+    @Autowired
+    SeckillStockSegments seckillStockSegments;
+    @Autowired
+    SeckillOrderPipeline seckillOrderPipeline;
+    
+    @Value("${hmdp.seckill.pipeline.enabled:false}")
+    private boolean pipelineEnabled;
+    @Value("${hmdp.seckill.stream.enabled:false}")
+    private boolean streamEnabled;
+    @Value("${hmdp.seckill.stream.consumers:2}")
+    private int streamConsumers;
+    @Value("${hmdp.seckill.stream.batch-size:100}")
+    private int streamBatchSize;
+    @Value("${hmdp.seckill.stream.claim-idle:60000}")
+    private long streamClaimIdle;
+    @Value("${hmdp.seckill.stream.max-deliveries:5}")
+    private long streamMaxDeliveries;
     
     // Feat: Seckill
     @Override
@@ -60,11 +102,15 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     
     // Feat: Seckill with single service
     public Result handleWithSingleService(Long voucherId) {
+        if (seckillSoldOutRegistry.isSoldOut(voucherId)) return Result.fail("Insufficient inventory");
         SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
         if (voucher == null) return Result.fail("No voucher");
         if (voucher.getBeginTime().isAfter(LocalDateTime.now())) return Result.fail("Has not yet started");
         if (voucher.getEndTime().isBefore(LocalDateTime.now())) return Result.fail("Has ended");
-        if (voucher.getStock() < 1) return Result.fail("Insufficient inventory");
+        if (voucher.getStock() < 1) {
+            seckillSoldOutRegistry.markSoldOut(voucherId);
+            return Result.fail("Insufficient inventory");
+        }
         
         // !!! Using userId as a lock, the same user is not allowed to purchase repeatedly, different users will not be affected
         Long userId = UserHolder.getUser().getId();
@@ -77,11 +123,15 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     
     // Feat: Seckill with multi services, using distributed mutex of Redis
     public Result handleWithCustomizedLock(Long voucherId) {
+        if (seckillSoldOutRegistry.isSoldOut(voucherId)) return Result.fail("Insufficient inventory");
         SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
         if (voucher == null) return Result.fail("No voucher");
         if (voucher.getBeginTime().isAfter(LocalDateTime.now())) return Result.fail("Has not yet started");
         if (voucher.getEndTime().isBefore(LocalDateTime.now())) return Result.fail("Has ended");
-        if (voucher.getStock() < 1) return Result.fail("Insufficient inventory");
+        if (voucher.getStock() < 1) {
+            seckillSoldOutRegistry.markSoldOut(voucherId);
+            return Result.fail("Insufficient inventory");
+        }
         
         // Obtain a distributed lock to implement serial operation between multiple services
         RedisLock redisLock = new RedisLock(
@@ -103,11 +153,15 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     
     // Feat: Seckill with multi services, using distributed mutex of Redisson
     public Result handleWithRedisson(Long voucherId) {
+        if (seckillSoldOutRegistry.isSoldOut(voucherId)) return Result.fail("Insufficient inventory");
         SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
         if (voucher == null) return Result.fail("No voucher");
         if (voucher.getBeginTime().isAfter(LocalDateTime.now())) return Result.fail("Has not yet started");
         if (voucher.getEndTime().isBefore(LocalDateTime.now())) return Result.fail("Has ended");
-        if (voucher.getStock() < 1) return Result.fail("Insufficient inventory");
+        if (voucher.getStock() < 1) {
+            seckillSoldOutRegistry.markSoldOut(voucherId);
+            return Result.fail("Insufficient inventory");
+        }
         
         // Obtain a distributed lock to implement serial operation between multiple services
         RLock lock = redissonClient.getLock(LOCK_VOUCHER_KEY + UserHolder.getUser().getId());
@@ -140,7 +194,10 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             .eq(SeckillVoucher::getVoucherId, voucherId)
             .gt(SeckillVoucher::getStock, 0)
             .update();
-        if (!isUpdated) return Result.fail("Insufficient inventory");
+        if (!isUpdated) {
+            seckillSoldOutRegistry.markSoldOut(voucherId);
+            return Result.fail("Insufficient inventory");
+        }
         
         // Generate unique ID by RedisWorker
         long orderId = redisIdWorker.nextId("order");
@@ -160,70 +217,101 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         SECKILL_SCRIPT.setResultType(Long.class);
     }
     
-    IVoucherOrderService proxy;
-    
-    // Feat: Seckill with multi services, optimize performance using Redis and JDK's MQ
+    // Feat: Seckill with multi services, optimize performance using Redis and the ring buffer pipeline in JVM
     public Result handleWithMqOfJdk(Long voucherId) {
-        int res = stringRedisTemplate.execute(
-            SECKILL_SCRIPT,
-            Collections.emptyList(),
-            voucherId.toString(),
-            UserHolder.getUser().getId().toString()
-        ).intValue();
-        
-        if (res == 1) {
-            return Result.fail("Insufficient inventory");
-        } else if (res == 2) {
-            return Result.fail("Cannot place duplicate orders");
+        if (seckillSoldOutRegistry.isSoldOut(voucherId)) return Result.fail("Insufficient inventory");
+        if (!seckillOrderPipeline.tryReserve()) return Result.fail("System busy");
+        boolean isPublished = false;
+        try {
+            int res = seckillStockSegments.segmentsOf(voucherId) > 1
+                ? seckillStockSegments.deduct(voucherId, UserHolder.getUser().getId())
+                : stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    Collections.emptyList(),
+                    voucherId.toString(),
+                    UserHolder.getUser().getId().toString()
+                ).intValue();
+            
+            if (res == 1) {
+                seckillSoldOutRegistry.markSoldOut(voucherId);
+                return Result.fail("Insufficient inventory");
+            } else if (res == 2) {
+                return Result.fail("Cannot place duplicate orders");
+            }
+            
+            long orderId = redisIdWorker.nextId("order");
+            seckillOrderPipeline.publish(orderId, UserHolder.getUser().getId(), voucherId);
+            isPublished = true;
+            
+            return Result.ok(orderId);
+        } finally {
+            // The slot reserved for a request that did not publish goes back to the ring
+            if (!isPublished) {
+                seckillOrderPipeline.cancelReservation();
+            }
         }
-        
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
-        
-        long orderId = redisIdWorker.nextId("order");
-        VoucherOrder voucherOrder = new VoucherOrder();
-        voucherOrder.setId(orderId);
-        voucherOrder.setUserId(UserHolder.getUser().getId());
-        voucherOrder.setVoucherId(voucherId);
-        orderTasks.add(voucherOrder);
-        
-        return Result.ok(orderId);
     }
     
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
-    private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
+    // Feat: A pool of stream consumers on every node, the names are unique across the nodes
+    private static final String STREAM_CONSUMER_PREFIX = ManagementFactory.getRuntimeMXBean().getName() + "-";
+    private ExecutorService streamConsumerExecutor;
+    private volatile boolean isRunning = true;
+    
+    private final LongAdder savedOrderCount = new LongAdder();
+    private final LongAdder failedOrderCount = new LongAdder();
+    private final LongAdder claimedOrderCount = new LongAdder();
+    private final LongAdder deadOrderCount = new LongAdder();
     
     @PostConstruct
     private void init() {
-        // SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandlerWithMqOfJdk());
-        // SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandlerWithMqOfRedis());
+        if (pipelineEnabled) {
+            seckillOrderPipeline.start(
+                (voucherOrderList) -> transactionTemplate.executeWithoutResult((status) -> createVoucherOrders(voucherOrderList)),
+                this::moveToDeadLetter
+            );
+        }
+        if (streamEnabled) {
+            createStreamGroup();
+            streamConsumerExecutor = Executors.newFixedThreadPool(streamConsumers, new ThreadFactoryBuilder().setNameFormat("order-consumer-%d").build());
+            for (int i = 0; i < streamConsumers; i++) {
+                streamConsumerExecutor.submit(new VoucherOrderHandlerWithMqOfRedis(STREAM_CONSUMER_PREFIX + i));
+            }
+        }
     }
     
-    private class VoucherOrderHandlerWithMqOfJdk implements Runnable {
-        @Override
-        public void run() {
-            while (true) {
-                try {
-                    VoucherOrder voucherOrder = orderTasks.take();
-                    handleVoucherOrder(voucherOrder);
-                } catch (Exception e) {
-                    log.error("Order handler exception", e);
-                }
+    // Feat: An order of the pipeline that can never be saved gives its stock back and is kept in the dead letter stream
+    //  The stock is restored first, a retry after a failed XADD does not restore it twice
+    private void moveToDeadLetter(VoucherOrder voucherOrder, RuntimeException e) {
+        seckillStockSegments.restore(voucherOrder.getVoucherId(), voucherOrder.getUserId());
+        Map<String, String> value = new LinkedHashMap<>();
+        value.put("id", voucherOrder.getId().toString());
+        value.put("userId", voucherOrder.getUserId().toString());
+        value.put("voucherId", voucherOrder.getVoucherId().toString());
+        value.put("error", String.valueOf(e.getMessage()));
+        stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(STREAM_ORDERS_DEAD_LETTER_KEY).ofMap(value));
+        log.error("Order {} cannot be saved, move it to the dead letter stream", voucherOrder.getId(), e);
+    }
+    
+    // XGROUP CREATE stream.orders g1 0 MKSTREAM, the group already exists if another node has created it
+    private void createStreamGroup() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) (connection) -> connection.streamCommands().xGroupCreate(
+                STREAM_ORDERS_KEY.getBytes(StandardCharsets.UTF_8), STREAM_ORDERS_GROUP, ReadOffset.from("0"), true
+            ));
+        } catch (DataAccessException e) {
+            if (e.getMessage() == null || !e.getMessage().contains("BUSYGROUP")) {
+                throw e;
             }
         }
-        
-        private void handleVoucherOrder(VoucherOrder voucherOrder) {
-            Long userId = voucherOrder.getUserId();
-            RLock lock = redissonClient.getLock(LOCK_ORDER_KEY + userId);
-            boolean isLock = lock.tryLock();
-            if (!isLock) {
-                log.error("Do not allow duplicate orders");
-                return;
-            }
-            try {
-                proxy.createVoucherOrder(voucherOrder);
-            } finally {
-                lock.unlock();
-            }
+    }
+    
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        seckillOrderPipeline.shutdown();
+        isRunning = false;
+        if (streamConsumerExecutor != null) {
+            streamConsumerExecutor.shutdown();
+            streamConsumerExecutor.awaitTermination(5, TimeUnit.SECONDS);
         }
     }
     
@@ -250,6 +338,42 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         save(voucherOrder);
     }
     
+    // Feat: Save a batch of orders with one multi-row INSERT and one stock decrement per voucher
+    //  The orders saved by a batch that was not acknowledged are skipped, the duplicate orders are already rejected by Lua
+    @Override
+    @Transactional
+    public void createVoucherOrders(List<VoucherOrder> voucherOrderList) {
+        Set<Long> savedIds = new HashSet<>(listObjs(
+            new LambdaQueryWrapper<VoucherOrder>()
+                .select(VoucherOrder::getId)
+                .in(VoucherOrder::getId, voucherOrderList.stream().map(VoucherOrder::getId).collect(Collectors.toList())),
+            (id) -> ((Number) id).longValue()
+        ));
+        List<VoucherOrder> newVoucherOrderList = voucherOrderList.stream()
+            .filter((voucherOrder) -> !savedIds.contains(voucherOrder.getId()))
+            .collect(Collectors.toList());
+        if (newVoucherOrderList.isEmpty()) {
+            return;
+        }
+        
+        // Get the vouchers, the stock must cover all the orders of a voucher, otherwise the batch is rolled back
+        Map<Long, Long> countMap = newVoucherOrderList.stream()
+            .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        countMap.forEach((voucherId, count) -> {
+            boolean isUpdated = seckillVoucherService
+                .lambdaUpdate()
+                .setSql("stock = stock - " + count)
+                .eq(SeckillVoucher::getVoucherId, voucherId)
+                .ge(SeckillVoucher::getStock, count)
+                .update();
+            if (!isUpdated) {
+                throw new RuntimeException("Insufficient inventory of voucher " + voucherId);
+            }
+        });
+        
+        baseMapper.insertBatch(newVoucherOrderList);
+    }
+    
     private static final DefaultRedisScript<Long> DEFAULT_REDIS_SCRIPT;
     static {
         DEFAULT_REDIS_SCRIPT = new DefaultRedisScript<>();
@@ -259,8 +383,11 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     
     // Feat: Seckill with multi services, optimize performance using Redis and Redis's MQ
     public Result handleWithMqOfRedis(Long voucherId) {
-        System.out.println(UserHolder.getUser().getId());
+        if (seckillSoldOutRegistry.isSoldOut(voucherId)) return Result.fail("Insufficient inventory");
         long orderId = redisIdWorker.nextId("order");
+        if (seckillStockSegments.segmentsOf(voucherId) > 1) {
+            return handleWithSegments(orderId, voucherId);
+        }
         int res = stringRedisTemplate.execute(
             DEFAULT_REDIS_SCRIPT,
             Collections.emptyList(),
@@ -270,6 +397,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         ).intValue();
         
         if (res == 1) {
+            seckillSoldOutRegistry.markSoldOut(voucherId);
             return Result.fail("Insufficient inventory");
         } else if (res == 2) {
             return Result.fail("Cannot place duplicate orders");
@@ -278,18 +406,114 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         return Result.ok(orderId);
     }
     
+    // The buckets may live on other shards than the stream, so the order is sent after the stock is taken
+    private Result handleWithSegments(long orderId, Long voucherId) {
+        Long userId = UserHolder.getUser().getId();
+        int res = seckillStockSegments.deduct(voucherId, userId);
+        if (res == 1) {
+            seckillSoldOutRegistry.markSoldOut(voucherId);
+            return Result.fail("Insufficient inventory");
+        } else if (res == 2) {
+            return Result.fail("Cannot place duplicate orders");
+        }
+        
+        Map<String, String> order = new LinkedHashMap<>();
+        order.put("id", String.valueOf(orderId));
+        order.put("userId", userId.toString());
+        order.put("voucherId", voucherId.toString());
+        stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(STREAM_ORDERS_KEY).ofMap(order));
+        return Result.ok(orderId);
+    }
+    
+    // Feat: Take over the entries idle past the threshold, e.g. of a dead node, the entries delivered too many times
+    //  are moved to the dead letter stream, XCLAIM only claims the entries still idle, so the nodes do not claim twice
+    @Scheduled(fixedDelayString = "${hmdp.seckill.stream.claim-interval:30000}")
+    public void reclaimPendingOrders() {
+        if (!streamEnabled) {
+            return;
+        }
+        
+        VoucherOrderHandlerWithMqOfRedis handler = new VoucherOrderHandlerWithMqOfRedis(STREAM_CONSUMER_PREFIX + "reclaim");
+        try {
+            // XPENDING stream.orders g1 - + batchSize
+            PendingMessages pendingMessages = stringRedisTemplate.opsForStream().pending(STREAM_ORDERS_KEY, STREAM_ORDERS_GROUP, Range.unbounded(), streamBatchSize);
+            List<RecordId> claimIdList = new ArrayList<>();
+            List<RecordId> deadIdList = new ArrayList<>();
+            for (PendingMessage pendingMessage : pendingMessages) {
+                if (pendingMessage.getElapsedTimeSinceLastDelivery().toMillis() < streamClaimIdle) {
+                    continue;
+                }
+                if (pendingMessage.getTotalDeliveryCount() >= streamMaxDeliveries) {
+                    deadIdList.add(pendingMessage.getId());
+                } else {
+                    claimIdList.add(pendingMessage.getId());
+                }
+            }
+            
+            if (!deadIdList.isEmpty()) {
+                handler.moveToDeadLetter(claim(handler.consumerName, deadIdList));
+            }
+            if (!claimIdList.isEmpty()) {
+                List<MapRecord<String, Object, Object>> list = claim(handler.consumerName, claimIdList);
+                claimedOrderCount.add(list.size());
+                if (!list.isEmpty()) {
+                    handler.handleVoucherOrders(list);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("Reclaim pending orders exception", e);
+        }
+    }
+    
+    // XCLAIM stream.orders g1 consumer claimIdle ids
+    private List<MapRecord<String, Object, Object>> claim(String consumerName, List<RecordId> recordIdList) {
+        return stringRedisTemplate.opsForStream().claim(
+            STREAM_ORDERS_KEY, STREAM_ORDERS_GROUP, consumerName, Duration.ofMillis(streamClaimIdle), recordIdList.toArray(new RecordId[0])
+        );
+    }
+    
+    // Feat: Length, pending count and lag of the order stream, lag is reported by Redis 7 and later
+    @Override
+    public Map<String, Object> streamMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", streamEnabled);
+        metrics.put("consumers", streamConsumers);
+        metrics.put("savedOrders", savedOrderCount.sum());
+        metrics.put("failedOrders", failedOrderCount.sum());
+        metrics.put("claimedOrders", claimedOrderCount.sum());
+        metrics.put("deadOrders", deadOrderCount.sum());
+        if (!streamEnabled) {
+            return metrics;
+        }
+        metrics.put("length", stringRedisTemplate.opsForStream().size(STREAM_ORDERS_KEY));
+        stringRedisTemplate.opsForStream().groups(STREAM_ORDERS_KEY).forEach((group) -> {
+            if (STREAM_ORDERS_GROUP.equals(group.groupName())) {
+                metrics.put("groupConsumers", group.consumerCount());
+                metrics.put("pending", group.pendingCount());
+                metrics.put("lastDeliveredId", group.lastDeliveredId());
+                metrics.put("lag", group.getRaw().get("lag"));
+            }
+        });
+        return metrics;
+    }
+    
     private class VoucherOrderHandlerWithMqOfRedis implements Runnable {
-        String queueName = "stream.orders";
+        String queueName = STREAM_ORDERS_KEY;
+        String consumerName;
+        
+        VoucherOrderHandlerWithMqOfRedis(String consumerName) {
+            this.consumerName = consumerName;
+        }
         
         @Override
         public void run() {
-            while (true) {
+            while (isRunning) {
                 try {
-                    // Get the message from the message queue
-                    // XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS streams.order >
+                    // Get a batch of messages from the message queue
+                    // XREADGROUP GROUP g1 c1 COUNT batchSize BLOCK 2000 STREAMS streams.order >
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                        Consumer.from("g1", "c1"),
-                        StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
+                        Consumer.from(STREAM_ORDERS_GROUP, consumerName),
+                        StreamReadOptions.empty().count(streamBatchSize).block(Duration.ofSeconds(2)),
                         StreamOffset.create(queueName, ReadOffset.from(">"))
                     );
                     
@@ -298,13 +522,8 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                         continue;
                     }
                     
-                    // After getting the message, complete the order task
-                    MapRecord<String, Object, Object> mapRecord = list.get(0);
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(mapRecord.getValue(), new VoucherOrder(), true);
-                    handleVoucherOrder(voucherOrder);
-                    
-                    // Acknowledge the message
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", mapRecord.getId());
+                    // After getting the messages, complete the order tasks
+                    handleVoucherOrders(list);
                 } catch (Exception e) {
                     log.error("Order handler exception", e);
                     handlePendingList();
@@ -312,15 +531,17 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             }
         }
         
+        // Walk the pending list once, the entries that keep failing are left to the reclaim
         private void handlePendingList() {
-            while (true) {
+            String lastId = "0";
+            while (isRunning) {
                 try {
-                    // Get the message from the pending list
-                    // XREADGROUP GROUP g1 c1 COUNT 1 STREAMS streams.order 0
+                    // Get a batch of messages from the pending list
+                    // XREADGROUP GROUP g1 consumer COUNT batchSize STREAMS streams.order lastId
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                        Consumer.from("g1", "c1"),
-                        StreamReadOptions.empty().count(1),
-                        StreamOffset.create(queueName, ReadOffset.from("0"))
+                        Consumer.from(STREAM_ORDERS_GROUP, consumerName),
+                        StreamReadOptions.empty().count(streamBatchSize),
+                        StreamOffset.create(queueName, ReadOffset.from(lastId))
                     );
                     
                     // If no message is obtained, break the loop
@@ -328,48 +549,55 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
                         break;
                     }
                     
-                    // After getting the message, complete the order task
-                    MapRecord<String, Object, Object> mapRecord = list.get(0);
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(mapRecord.getValue(), new VoucherOrder(), true);
-                    handleVoucherOrder(voucherOrder);
-                    
-                    // Acknowledge the message
-                    stringRedisTemplate.opsForStream().acknowledge(queueName, "g1", mapRecord.getId());
+                    // After getting the messages, complete the order tasks
+                    lastId = list.get(list.size() - 1).getId().getValue();
+                    handleVoucherOrders(list);
                 } catch (Exception e) {
                     log.error("Pending list handler exception", e);
+                    break;
                 }
             }
         }
         
-        private void handleVoucherOrder(VoucherOrder voucherOrder) {
-            Long userId = voucherOrder.getUserId();
-            RLock lock = redissonClient.getLock(LOCK_ORDER_KEY + userId);
-            boolean isLock = lock.tryLock();
-            if (!isLock) {
-                log.error("Do not allow duplicate orders");
-                return;
+        private void moveToDeadLetter(List<MapRecord<String, Object, Object>> list) {
+            for (MapRecord<String, Object, Object> mapRecord : list) {
+                log.error("Order is delivered too many times, move it to the dead letter stream, record id is {}", mapRecord.getId());
+                stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(STREAM_ORDERS_DEAD_LETTER_KEY).ofMap(mapRecord.getValue()));
+                stringRedisTemplate.opsForStream().acknowledge(queueName, STREAM_ORDERS_GROUP, mapRecord.getId());
+                deadOrderCount.increment();
             }
+        }
+        
+        // Save the batch in one transaction and acknowledge it with one XACK
+        //  If the batch fails, save the orders one by one, the failed ones stay in the pending list to be retried
+        private void handleVoucherOrders(List<MapRecord<String, Object, Object>> list) {
+            List<VoucherOrder> voucherOrderList = list.stream()
+                .map((mapRecord) -> BeanUtil.fillBeanWithMap(mapRecord.getValue(), new VoucherOrder(), true))
+                .collect(Collectors.toList());
+            
             try {
-                // A person is only allowed to get one voucher
-                int count = lambdaQuery()
-                    .eq(VoucherOrder::getUserId, userId)
-                    .eq(VoucherOrder::getVoucherId, voucherOrder.getVoucherId())
-                    .count();
-                if (count > 0) return;
-                
-                // Get the voucher, ensure thread safety through MySQL's optimistic lock
-                boolean isUpdated = seckillVoucherService
-                    .lambdaUpdate()
-                    .setSql("stock = stock - 1")
-                    .eq(SeckillVoucher::getVoucherId, voucherOrder.getVoucherId())
-                    .gt(SeckillVoucher::getStock, 0)
-                    .update();
-                if (!isUpdated) return;
-                
-                // Generate unique ID by RedisWorker
-                save(voucherOrder);
-            } finally {
-                lock.unlock();
+                transactionTemplate.executeWithoutResult((status) -> createVoucherOrders(voucherOrderList));
+                stringRedisTemplate.opsForStream().acknowledge(queueName, STREAM_ORDERS_GROUP, list.stream().map(MapRecord::getId).toArray(RecordId[]::new));
+                savedOrderCount.add(list.size());
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Failed to save a batch of {} orders, save them one by one", list.size(), e);
+            }
+            
+            List<RecordId> recordIdList = new ArrayList<>(list.size());
+            for (int i = 0; i < list.size(); i++) {
+                VoucherOrder voucherOrder = voucherOrderList.get(i);
+                try {
+                    transactionTemplate.executeWithoutResult((status) -> createVoucherOrders(Collections.singletonList(voucherOrder)));
+                    recordIdList.add(list.get(i).getId());
+                    savedOrderCount.increment();
+                } catch (RuntimeException e) {
+                    failedOrderCount.increment();
+                    log.error("Failed to save order {}, leave it in the pending list", voucherOrder.getId(), e);
+                }
+            }
+            if (!recordIdList.isEmpty()) {
+                stringRedisTemplate.opsForStream().acknowledge(queueName, STREAM_ORDERS_GROUP, recordIdList.toArray(new RecordId[0]));
             }
         }
     }
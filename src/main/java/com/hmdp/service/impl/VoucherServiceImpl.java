@@ -1,6 +1,8 @@
 package com.hmdp.service.impl;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.annotation.HmCacheEvict;
+import com.hmdp.annotation.HmCacheable;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
@@ -8,15 +10,20 @@ import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
 import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillSoldOutRegistry;
+import com.hmdp.utils.SeckillStockSegments;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import javax.annotation.Resource;
 import java.util.List;
 
+import static com.hmdp.utils.RedisConstants.CACHE_VOUCHER_OF_SHOP_KEY;
 import static com.hmdp.utils.RedisConstants.LOCK_VOUCHER_KEY;
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
  * <p>
@@ -32,17 +39,30 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     private ISeckillVoucherService seckillVoucherService;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillSoldOutRegistry seckillSoldOutRegistry;
+    @Resource
+    private SeckillStockSegments seckillStockSegments;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        IVoucherService proxy = (IVoucherService) AopContext.currentProxy();
+        List<Voucher> vouchers = proxy.listVoucherOfShop(shopId);
         // 返回结果
         return Result.ok(vouchers);
     }
+    
+    // Feat: Cache with annotation
+    @Override
+    @HmCacheable(prefix = CACHE_VOUCHER_OF_SHOP_KEY, key = "#shopId", ttl = 30L, jitter = 5L)
+    public List<Voucher> listVoucherOfShop(Long shopId) {
+        return getBaseMapper().queryVoucherOfShop(shopId);
+    }
 
     @Override
     @Transactional
+    @HmCacheEvict(prefix = CACHE_VOUCHER_OF_SHOP_KEY, key = "#voucher.shopId")
     public void addSeckillVoucher(Voucher voucher) {
         // Save voucher to DB
         save(voucher);
@@ -55,7 +75,32 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
         
-        // Save seckill stock to Redis
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // Save seckill stock to Redis, split into buckets if the segmented stock is enabled
+        seckillStockSegments.init(voucher.getId(), voucher.getStock());
+    }
+    
+    // Feat: Add stock to a seckill voucher, the Redis stock and the sold-out flags follow once the DB stock is committed
+    @Override
+    @Transactional
+    public void replenishSeckillStock(Long voucherId, Integer amount) {
+        if (amount == null || amount <= 0) {
+            throw new RuntimeException("Invalid amount " + amount);
+        }
+        boolean isUpdated = seckillVoucherService
+            .lambdaUpdate()
+            .setSql("stock = stock + " + amount)
+            .eq(SeckillVoucher::getVoucherId, voucherId)
+            .update();
+        if (!isUpdated) {
+            throw new RuntimeException("No seckill voucher " + voucherId);
+        }
+        
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                seckillStockSegments.replenish(voucherId, amount);
+                seckillSoldOutRegistry.reset(voucherId);
+            }
+        });
     }
 }
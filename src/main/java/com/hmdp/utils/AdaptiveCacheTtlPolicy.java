@@ -0,0 +1,100 @@
+package com.hmdp.utils;
+
+import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Feat: TTL with random jitter, so keys loaded together do not expire together, extended for the hot keys and
+//  shortened for the cold keys by the estimates of HotKeyDetector, configured per key prefix
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache.ttl")
+public class AdaptiveCacheTtlPolicy implements CacheTtlPolicy {
+    @Autowired
+    private HotKeyDetector hotKeyDetector;
+    
+    @Getter
+    @Setter
+    private Rule defaults = new Rule(0.0, 1.0, 1.0, 0, null);
+    // The longest matching prefix wins, unset fields fall back to the defaults
+    @Getter
+    @Setter
+    private Map<String, Rule> prefixes = new LinkedHashMap<>();
+    
+    @Override
+    public long ttl(String key, long time, TimeUnit unit) {
+        Rule rule = ruleOf(key);
+        double factor = 1.0;
+        // Without the sketch every key would look cold, so would they before the sketch has seen a full cold window
+        if (hotKeyDetector.isEnabled()) {
+            if (hotKeyDetector.isHot(key)) {
+                factor = valueOf(rule.hotFactor, defaults.hotFactor);
+            } else if (hotKeyDetector.isWindowFull()
+                && hotKeyDetector.windowEstimate(key) < valueOf(rule.coldThreshold, defaults.coldThreshold)) {
+                factor = valueOf(rule.coldFactor, defaults.coldFactor);
+            }
+        }
+        return withJitter(unit.toSeconds(time) * factor, valueOf(rule.jitter, defaults.jitter));
+    }
+    
+    @Override
+    public long nullTtl(String key, long time, TimeUnit unit) {
+        Rule rule = ruleOf(key);
+        Long nullTtl = valueOf(rule.nullTtl, defaults.nullTtl);
+        return withJitter(nullTtl != null ? nullTtl : unit.toSeconds(time), valueOf(rule.jitter, defaults.jitter));
+    }
+    
+    // Spread the TTL uniformly in [ttl * (1 - jitter), ttl * (1 + jitter)], at least 1 second
+    private long withJitter(double ttl, double jitter) {
+        double random = jitter > 0 ? ThreadLocalRandom.current().nextDouble(-jitter, jitter) : 0;
+        return Math.max(1, Math.round(ttl * (1 + random)));
+    }
+    
+    private Rule ruleOf(String key) {
+        Rule rule = defaults;
+        int length = -1;
+        for (Map.Entry<String, Rule> entry : prefixes.entrySet()) {
+            if (key.startsWith(entry.getKey()) && entry.getKey().length() > length) {
+                rule = entry.getValue();
+                length = entry.getKey().length();
+            }
+        }
+        return rule;
+    }
+    
+    private static <V> V valueOf(V value, V defaultValue) {
+        return value != null ? value : defaultValue;
+    }
+    
+    @Data
+    public static class Rule {
+        // Fraction of the TTL, 0.1 spreads the TTL by +-10%
+        private Double jitter;
+        // Multiply the TTL of the hot keys
+        private Double hotFactor;
+        // Multiply the TTL of the keys looked up less than the cold threshold in about the last cold window of the sketch,
+        //  the lookup missing the key is counted before the write, so a key looked up once in the window is cold
+        private Double coldFactor;
+        private Integer coldThreshold;
+        // Seconds, the TTL of the blank value, the caller's TTL if unset
+        private Long nullTtl;
+        
+        public Rule() {
+        }
+        
+        Rule(Double jitter, Double hotFactor, Double coldFactor, Integer coldThreshold, Long nullTtl) {
+            this.jitter = jitter;
+            this.hotFactor = hotFactor;
+            this.coldFactor = coldFactor;
+            this.coldThreshold = coldThreshold;
+            this.nullTtl = nullTtl;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.hmdp.utils;
+
+// Feat: A cache miss that waited the max wait for the rebuild of another caller, with no stale data to serve
+//  The request fails fast instead of querying the DB, which is already too slow for the rebuild
+public class CacheBusyException extends RuntimeException {
+    public CacheBusyException(String message) {
+        super(message);
+    }
+}
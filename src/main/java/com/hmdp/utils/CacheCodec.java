@@ -0,0 +1,12 @@
+package com.hmdp.utils;
+
+import java.util.List;
+
+// Feat: Encode cache values to bytes and back, the first byte of a binary format is its version header
+public interface CacheCodec {
+    byte[] encode(Object val);
+    
+    <R> R decode(byte[] bytes, Class<R> type);
+    
+    <R> List<R> decodeList(byte[] bytes, Class<R> elementType);
+}
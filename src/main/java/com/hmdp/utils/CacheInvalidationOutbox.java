@@ -0,0 +1,131 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.mapper.CacheOutboxMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.LOCK_CACHE_OUTBOX_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_CACHE_OUTBOX_TTL;
+
+// Feat: Transactional outbox for the cache invalidation, the keys are written in the same transaction as the change,
+//  deleted right after the commit, then deleted again by the dispatcher after a delay to drop the stale values written
+//  back by the readers that loaded the old row before the commit, a failed delete is retried with backoff
+@Slf4j
+@Component
+public class CacheInvalidationOutbox {
+    @Autowired
+    CacheOutboxMapper cacheOutboxMapper;
+    @Autowired
+    CacheUtils cacheUtils;
+    @Autowired
+    StringRedisTemplate stringRedisTemplate;
+    
+    @Value("${hmdp.cache.outbox.double-delete-delay:1000}")
+    private long doubleDeleteDelay;
+    @Value("${hmdp.cache.outbox.batch-size:100}")
+    private int batchSize;
+    @Value("${hmdp.cache.outbox.max-retries:5}")
+    private int maxRetries;
+    
+    // Call inside the transaction that changes the entity, the keys are deleted only if it commits
+    public void record(String... keys) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Cache invalidation must be recorded in a transaction");
+        }
+        
+        List<CacheOutbox> outboxList = new ArrayList<>(keys.length);
+        for (String key : keys) {
+            CacheOutbox outbox = new CacheOutbox()
+                .setCacheKey(key)
+                .setStatus(CacheOutbox.STATUS_PENDING)
+                .setRetryCount(0)
+                .setNextTime(LocalDateTime.now().plus(doubleDeleteDelay, ChronoUnit.MILLIS));
+            cacheOutboxMapper.insert(outbox);
+            outboxList.add(outbox);
+        }
+        
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                deleteAfterCommit(outboxList);
+            }
+        });
+    }
+    
+    // The first delete runs on the caller's thread and touches Redis only, the transaction is already committed,
+    //  the delayed delete of the dispatcher also covers a failure here
+    private void deleteAfterCommit(List<CacheOutbox> outboxList) {
+        try {
+            cacheUtils.evictAll(outboxList.stream().map(CacheOutbox::getCacheKey).collect(Collectors.toList()));
+        } catch (RuntimeException e) {
+            log.warn("Failed to delete cache after commit, leave it to the dispatcher", e);
+        }
+    }
+    
+    // Only one node dispatches at a time, the deletes are idempotent if the lock expires during a round
+    @Scheduled(fixedDelayString = "${hmdp.cache.outbox.dispatch-interval:500}")
+    public void dispatch() {
+        RedisLock lock = new RedisLock(LOCK_CACHE_OUTBOX_KEY, LOCK_CACHE_OUTBOX_TTL, stringRedisTemplate);
+        try {
+            if (!lock.tryLock()) {
+                return;
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to dispatch cache outbox", e);
+            return;
+        }
+        
+        try {
+            List<CacheOutbox> outboxList = cacheOutboxMapper.selectList(new LambdaQueryWrapper<CacheOutbox>()
+                .eq(CacheOutbox::getStatus, CacheOutbox.STATUS_PENDING)
+                .le(CacheOutbox::getNextTime, LocalDateTime.now())
+                .orderByAsc(CacheOutbox::getNextTime)
+                .last("limit " + batchSize));
+            if (outboxList.isEmpty()) {
+                return;
+            }
+            
+            try {
+                cacheUtils.evictAll(outboxList.stream().map(CacheOutbox::getCacheKey).distinct().collect(Collectors.toList()));
+            } catch (RuntimeException e) {
+                log.warn("Failed to delete cache of {} outbox entries, retry later", outboxList.size(), e);
+                outboxList.forEach(this::markRetry);
+                return;
+            }
+            cacheOutboxMapper.deleteBatchIds(outboxList.stream().map(CacheOutbox::getId).collect(Collectors.toList()));
+        } finally {
+            lock.unLock();
+        }
+    }
+    
+    // Back off exponentially, give up after the max retries and leave the entry for a manual check
+    private void markRetry(CacheOutbox outbox) {
+        int retryCount = outbox.getRetryCount() + 1;
+        if (retryCount > maxRetries) {
+            log.error("Failed to delete cache after {} retries, key is {}", maxRetries, outbox.getCacheKey());
+            cacheOutboxMapper.updateById(new CacheOutbox()
+                .setId(outbox.getId())
+                .setStatus(CacheOutbox.STATUS_FAILED)
+                .setRetryCount(retryCount));
+            return;
+        }
+        cacheOutboxMapper.updateById(new CacheOutbox()
+            .setId(outbox.getId())
+            .setRetryCount(retryCount)
+            .setNextTime(LocalDateTime.now().plus(doubleDeleteDelay << retryCount, ChronoUnit.MILLIS)));
+    }
+}
@@ -0,0 +1,209 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Feat: Hit, miss and DB fallback latency of the cache per key prefix and strategy, used to tune the TTLs
+@Slf4j
+@Component
+public class CacheMetrics {
+    // Key prefix -> stats indexed by the ordinal of the strategy
+    private final ConcurrentHashMap<String, Stats[]> statsMap = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompressionStats> compressionStatsMap = new ConcurrentHashMap<>();
+    
+    public Stats of(String keyPrefix, CacheStrategy strategy) {
+        Stats[] statsArray = statsMap.get(keyPrefix);
+        if (statsArray == null) {
+            statsArray = statsMap.computeIfAbsent(keyPrefix, (prefix) -> {
+                Stats[] newStatsArray = new Stats[CacheStrategy.values().length];
+                for (CacheStrategy s : CacheStrategy.values()) {
+                    newStatsArray[s.ordinal()] = new Stats(prefix, s);
+                }
+                return newStatsArray;
+            });
+        }
+        return statsArray[strategy.ordinal()];
+    }
+    
+    public CompressionStats compressionOf(String keyPrefix) {
+        CompressionStats stats = compressionStatsMap.get(keyPrefix);
+        if (stats == null) {
+            stats = compressionStatsMap.computeIfAbsent(keyPrefix, CompressionStats::new);
+        }
+        return stats;
+    }
+    
+    public List<Map<String, Object>> compressionSnapshot() {
+        List<Map<String, Object>> snapshot = new ArrayList<>();
+        for (CompressionStats stats : compressionStatsMap.values()) {
+            snapshot.add(stats.snapshot());
+        }
+        return snapshot;
+    }
+    
+    public List<Map<String, Object>> snapshot() {
+        List<Map<String, Object>> snapshot = new ArrayList<>();
+        for (Stats[] statsArray : statsMap.values()) {
+            for (Stats stats : statsArray) {
+                if (stats.requests() > 0) {
+                    snapshot.add(stats.snapshot());
+                }
+            }
+        }
+        return snapshot;
+    }
+    
+    @Scheduled(fixedDelayString = "${hmdp.cache.metrics.log-interval:60000}")
+    public void logSnapshot() {
+        for (Map<String, Object> stats : snapshot()) {
+            log.info("Cache metrics {}", stats);
+        }
+        for (Map<String, Object> stats : compressionSnapshot()) {
+            log.info("Cache compression metrics {}", stats);
+        }
+    }
+    
+    public static class Stats {
+        private final String keyPrefix;
+        private final CacheStrategy strategy;
+        
+        private final LongAdder localHits = new LongAdder();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder nullHits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder lockContentions = new LongAdder();
+        private final LongAdder staleHits = new LongAdder();
+        private final LongAdder rebuilds = new LongAdder();
+        private final LongAdder fallbackErrors = new LongAdder();
+        private final LongAdder busyRejections = new LongAdder();
+        private final LatencyHistogram fallbackLatency = new LatencyHistogram();
+        
+        Stats(String keyPrefix, CacheStrategy strategy) {
+            this.keyPrefix = keyPrefix;
+            this.strategy = strategy;
+        }
+        
+        public void localHit() {
+            localHits.increment();
+        }
+        
+        public void hit() {
+            hits.increment();
+        }
+        
+        public void nullHit() {
+            nullHits.increment();
+        }
+        
+        public void miss() {
+            misses.increment();
+        }
+        
+        public void lockContention() {
+            lockContentions.increment();
+        }
+        
+        public void staleHit() {
+            staleHits.increment();
+        }
+        
+        public void fallbackError() {
+            fallbackErrors.increment();
+        }
+        
+        public void busyRejection() {
+            busyRejections.increment();
+        }
+        
+        // Every call of the DB fallback is a rebuild
+        public void rebuild(long nanos) {
+            rebuilds.increment();
+            fallbackLatency.record(TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+        
+        long requests() {
+            return localHits.sum() + hits.sum() + nullHits.sum() + misses.sum();
+        }
+        
+        Map<String, Object> snapshot() {
+            long requests = requests();
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("keyPrefix", keyPrefix);
+            snapshot.put("strategy", strategy);
+            snapshot.put("requests", requests);
+            snapshot.put("localHits", localHits.sum());
+            snapshot.put("hits", hits.sum());
+            snapshot.put("nullHits", nullHits.sum());
+            snapshot.put("misses", misses.sum());
+            snapshot.put("hitRatio", requests == 0 ? 0 : (double) (localHits.sum() + hits.sum() + nullHits.sum()) / requests);
+            snapshot.put("lockContentions", lockContentions.sum());
+            snapshot.put("staleHits", staleHits.sum());
+            snapshot.put("rebuilds", rebuilds.sum());
+            snapshot.put("fallbackErrors", fallbackErrors.sum());
+            snapshot.put("busyRejections", busyRejections.sum());
+            snapshot.put("fallbackLatencyMillis", fallbackLatency.snapshot());
+            return snapshot;
+        }
+    }
+    
+    // Feat: Compression ratio and CPU time of the values above the threshold, per key prefix
+    public static class CompressionStats {
+        private final String keyPrefix;
+        
+        private final LongAdder compressions = new LongAdder();
+        private final LongAdder skips = new LongAdder();
+        private final LongAdder rawBytes = new LongAdder();
+        private final LongAdder compressedBytes = new LongAdder();
+        private final LongAdder compressNanos = new LongAdder();
+        private final LongAdder decompressions = new LongAdder();
+        private final LongAdder decompressNanos = new LongAdder();
+        
+        CompressionStats(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+        
+        public void compress(int rawLength, int compressedLength, long nanos) {
+            compressions.increment();
+            rawBytes.add(rawLength);
+            compressedBytes.add(compressedLength);
+            compressNanos.add(nanos);
+        }
+        
+        // Compressed but stored as is, it did not get smaller
+        public void skip(long nanos) {
+            skips.increment();
+            compressNanos.add(nanos);
+        }
+        
+        public void decompress(long nanos) {
+            decompressions.increment();
+            decompressNanos.add(nanos);
+        }
+        
+        Map<String, Object> snapshot() {
+            long compressionCount = compressions.sum();
+            long decompressionCount = decompressions.sum();
+            long attempts = compressionCount + skips.sum();
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("keyPrefix", keyPrefix);
+            snapshot.put("compressions", compressionCount);
+            snapshot.put("skips", skips.sum());
+            snapshot.put("rawBytes", rawBytes.sum());
+            snapshot.put("compressedBytes", compressedBytes.sum());
+            snapshot.put("ratio", compressedBytes.sum() == 0 ? 0 : (double) rawBytes.sum() / compressedBytes.sum());
+            snapshot.put("avgCompressMicros", attempts == 0 ? 0 : compressNanos.sum() / attempts / 1000);
+            snapshot.put("decompressions", decompressionCount);
+            snapshot.put("avgDecompressMicros", decompressionCount == 0 ? 0 : decompressNanos.sum() / decompressionCount / 1000);
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.hmdp.utils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Feat: Shared executor of cache rebuilds, bounded queue, at most one pending rebuild per key, with metrics
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+    @Value("${hmdp.cache.rebuild.pool-size:10}")
+    private int poolSize;
+    @Value("${hmdp.cache.rebuild.queue-capacity:1000}")
+    private int queueCapacity;
+    // discard | caller-runs | abort
+    @Value("${hmdp.cache.rebuild.rejection-policy:discard}")
+    private String rejectionPolicy;
+    @Value("${hmdp.cache.rebuild.shutdown-timeout:30}")
+    private long shutdownTimeout;
+    
+    private ThreadPoolExecutor executor;
+    
+    // Keys queued or running, a key is never queued twice
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+    
+    private final LongAdder submittedCount = new LongAdder();
+    private final LongAdder duplicateCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder successCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder totalLatency = new LongAdder();
+    private final AtomicLong maxLatency = new AtomicLong();
+    
+    @PostConstruct
+    private void init() {
+        executor = new ThreadPoolExecutor(
+            poolSize,
+            poolSize,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            new ThreadFactoryBuilder().setNameFormat("cache-rebuild-%d").setDaemon(true).build(),
+            new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+    
+    // Returns false if the key is already pending or the task is rejected, the caller should release its lock then
+    public boolean submit(String key, Runnable task) {
+        if (!pendingKeys.add(key)) {
+            duplicateCount.increment();
+            return false;
+        }
+        
+        Runnable rebuild = () -> run(key, task);
+        try {
+            executor.execute(rebuild);
+            submittedCount.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejectedCount.increment();
+            if ("caller-runs".equals(rejectionPolicy) && !executor.isShutdown()) {
+                rebuild.run();
+                return true;
+            }
+            pendingKeys.remove(key);
+            if ("abort".equals(rejectionPolicy)) {
+                throw e;
+            }
+            log.warn("Cache rebuild is rejected, key is {}, queue size is {}", key, executor.getQueue().size());
+            return false;
+        }
+    }
+    
+    private void run(String key, Runnable task) {
+        long begin = System.nanoTime();
+        try {
+            task.run();
+            successCount.increment();
+        } catch (Throwable e) {
+            failureCount.increment();
+            log.error("Failed to rebuild cache, key is {}", key, e);
+        } finally {
+            pendingKeys.remove(key);
+            long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+            totalLatency.add(latency);
+            maxLatency.accumulateAndGet(latency, Math::max);
+        }
+    }
+    
+    public Map<String, Object> metrics() {
+        long finished = successCount.sum() + failureCount.sum();
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("poolSize", executor.getPoolSize());
+        metrics.put("activeCount", executor.getActiveCount());
+        metrics.put("queueDepth", executor.getQueue().size());
+        metrics.put("pendingKeys", pendingKeys.size());
+        metrics.put("submitted", submittedCount.sum());
+        metrics.put("duplicated", duplicateCount.sum());
+        metrics.put("rejected", rejectedCount.sum());
+        metrics.put("succeeded", successCount.sum());
+        metrics.put("failed", failureCount.sum());
+        metrics.put("avgLatencyMillis", finished == 0 ? 0 : totalLatency.sum() / finished);
+        metrics.put("maxLatencyMillis", maxLatency.get());
+        return metrics;
+    }
+    
+    // Let the queued rebuilds finish before the Redis connections are closed
+    @PreDestroy
+    private void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(shutdownTimeout, TimeUnit.SECONDS)) {
+            log.warn("Cache rebuilds did not finish in {} seconds, {} are dropped", shutdownTimeout, executor.shutdownNow().size());
+        }
+    }
+}
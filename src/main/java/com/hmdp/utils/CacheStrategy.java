@@ -0,0 +1,8 @@
+package com.hmdp.utils;
+
+// Feat: The ways CacheUtils protects a query from cache penetration and cache breakdown
+public enum CacheStrategy {
+    PASS_THROUGH,
+    MUTEX,
+    LOGICAL_EXPIRATION
+}
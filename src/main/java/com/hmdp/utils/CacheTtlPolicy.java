@@ -0,0 +1,12 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+
+// Feat: Decide the TTL of a cache entry on every write, time and unit are the TTL asked by the caller
+public interface CacheTtlPolicy {
+    // TTL in seconds of a value
+    long ttl(String key, long time, TimeUnit unit);
+    
+    // TTL in seconds of the blank value
+    long nullTtl(String key, long time, TimeUnit unit);
+}
@@ -1,19 +1,29 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.util.ArrayUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -21,152 +31,531 @@ import static com.hmdp.utils.RedisConstants.*;
 @Slf4j
 @Component
 public class CacheUtils {
+    // Feat: Every key is routed to its shard of the consistent hash ring
     @Autowired
-    StringRedisTemplate stringRedisTemplate;
+    RedisShardRouter redisShardRouter;
+    @Autowired
+    CacheCodec cacheCodec;
+    @Autowired
+    CacheCompressor cacheCompressor;
+    @Autowired
+    LocalCache localCache;
+    @Autowired
+    CacheRebuildExecutor cacheRebuildExecutor;
+    @Autowired
+    CacheMetrics cacheMetrics;
+    @Autowired
+    HotKeyDetector hotKeyDetector;
+    @Autowired
+    CacheTtlPolicy cacheTtlPolicy;
+    
+    @Value("${hmdp.cache.single-flight.timeout:500}")
+    private long singleFlightTimeout;
+    @Value("${hmdp.cache.single-flight.max-wait:3000}")
+    private long singleFlightMaxWait;
+    
+    @Value("${hmdp.cache.early-refresh.prefixes:}")
+    private String[] earlyRefreshPrefixes;
+    @Value("${hmdp.cache.early-refresh.beta:1.0}")
+    private double earlyRefreshBeta;
+    @Value("${hmdp.cache.early-refresh.default-cost:100}")
+    private long earlyRefreshDefaultCost;
+    
+    private static final long REBUILD_POLL_INTERVAL = 20L;
+    
+    private final SingleFlight singleFlight = new SingleFlight();
     
     public String get(String key) {
-        return stringRedisTemplate.opsForValue().get(key);
+        return redisShardRouter.stringTemplate(key).opsForValue().get(key);
+    }
+    
+    // Returns null if the key does not exist, an empty array if it holds the blank value
+    public byte[] getBytes(String key) {
+        return redisShardRouter.byteTemplate(key).opsForValue().get(key);
     }
     
+    public <R> R get(String key, Class<R> type) {
+        return decode(key, getBytes(key), type);
+    }
+    
+    public <R> List<R> getList(String key, Class<R> elementType) {
+        byte[] bytes = getBytes(key);
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        try {
+            return cacheCodec.decodeList(cacheCompressor.decompress(key, bytes), elementType);
+        } catch (RuntimeException e) {
+            log.warn("Failed to decode cache, key is {}", key, e);
+            return null;
+        }
+    }
+    
+    // An entry in a format this node cannot read, e.g. written by a newer version, is treated as a miss and overwritten
+    private <R> R decode(String key, byte[] bytes, Class<R> type) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        try {
+            return cacheCodec.decode(cacheCompressor.decompress(key, bytes), type);
+        } catch (RuntimeException e) {
+            log.warn("Failed to decode cache, key is {}", key, e);
+            return null;
+        }
+    }
+    
+    // Values above the threshold are compressed, the reads detect it by the header
+    private byte[] encode(String key, Object val) {
+        return cacheCompressor.compress(key, cacheCodec.encode(val));
+    }
+    
+    // The TTL policy adjusts the TTL asked by the caller
     public void set(String key, Object val, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(val), time, unit);
+        redisShardRouter.byteTemplate(key).opsForValue().set(key, encode(key, val), cacheTtlPolicy.ttl(key, time, unit), TimeUnit.SECONDS);
+    }
+    
+    // Store a blank value in Redis to prevent cache penetration
+    public void setBlank(String key, Long time, TimeUnit unit) {
+        redisShardRouter.byteTemplate(key).opsForValue().set(key, new byte[0], cacheTtlPolicy.nullTtl(key, time, unit), TimeUnit.SECONDS);
     }
     
     public void setWithLogicalExpiration(String key, Object val, Long time, TimeUnit unit) {
+        setWithLogicalExpiration(key, val, time, unit, null);
+    }
+    
+    // Store the time taken to load the data alongside, it drives the probabilistic early refresh
+    public void setWithLogicalExpiration(String key, Object val, Long time, TimeUnit unit, Long rebuildCost) {
         RedisData redisData = new RedisData();
         redisData.setData(val);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(cacheTtlPolicy.ttl(key, time, unit)));
+        redisData.setRebuildCost(rebuildCost);
+        redisShardRouter.byteTemplate(key).opsForValue().set(key, encode(key, redisData));
+    }
+    
+    // Feat: Delete the key from Redis and drop the local cache of all nodes
+    public void evict(String key) {
+        redisShardRouter.stringTemplate(key).delete(key);
+        localCache.publishInvalidation(key);
+    }
+    
+    // Delete the keys with one DEL per shard
+    public void evictAll(Collection<String> keys) {
+        redisShardRouter.group(keys).forEach((shard, shardKeys) -> shard.getStringRedisTemplate().delete(shardKeys));
+        for (String key : keys) {
+            localCache.publishInvalidation(key);
+        }
     }
     
     public <T, R> R queryWithPassThrough(String keyPrefix, T id, Class<R> type, Long time, TimeUnit unit, Function<T, R> dbFallback) {
+        return queryWithPassThrough(keyPrefix, id, type, time, unit, dbFallback, true);
+    }
+    
+    public <T, R> R queryWithPassThrough(String keyPrefix, T id, Class<R> type, Long time, TimeUnit unit, Function<T, R> dbFallback, boolean cacheNull) {
         String key = keyPrefix + id;
+        CacheMetrics.Stats stats = cacheMetrics.of(keyPrefix, CacheStrategy.PASS_THROUGH);
+        
+        // Query data from local cache
+        R localData = getLocal(key, type);
+        if (localData != null) {
+            stats.localHit();
+            return localData;
+        }
         
         // Query data from cache
-        String dataJson = get(key);
-        if (StrUtil.isNotBlank(dataJson)) {
-            return JSONUtil.toBean(dataJson, type);
+        byte[] bytes = getBytes(key);
+        R data = decode(key, bytes, type);
+        if (data != null) {
+            stats.hit();
+            putLocal(key, data);
+            return data;
         }
         
-        // Handle blank string
-        if (dataJson != null) {
+        // Handle blank value
+        if (bytes != null && bytes.length == 0) {
+            stats.nullHit();
             return null;
         }
         
         // Query data from DB
-        R data = dbFallback.apply(id);
+        stats.miss();
+        data = loadFromDb(stats, dbFallback, id);
         if (data == null) {
-            // Store a blank string in Redis to prevent cache penetration
-            set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            // Store a blank value in Redis to prevent cache penetration
+            if (cacheNull) {
+                setBlank(key, CACHE_NULL_TTL, TimeUnit.MINUTES);
+            }
             return null;
         }
         
         // Save data to cache, set expiration time to prevent dirty writing
-        set(key, JSONUtil.toJsonStr(data), time, unit);
+        set(key, data, time, unit);
+        putLocal(key, data);
         
         return data;
     }
     
+    // Feat: Query a batch of keys with one MGET, load only the misses with one DB call and write them back in a pipeline
+    //  The result keeps the order of the ids, ids without data are skipped
+    public <T, R> List<R> queryMany(String keyPrefix, List<T> ids, Class<R> type, Long time, TimeUnit unit, Function<List<T>, Map<T, R>> batchFallback) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        
+        CacheMetrics.Stats stats = cacheMetrics.of(keyPrefix, CacheStrategy.PASS_THROUGH);
+        Map<T, R> dataMap = new HashMap<>(ids.size());
+        List<T> redisIds = new ArrayList<>(ids.size());
+        
+        // Query data from local cache
+        for (T id : ids) {
+            R localData = getLocal(keyPrefix + id, type);
+            if (localData != null) {
+                stats.localHit();
+                dataMap.put(id, localData);
+            } else {
+                redisIds.add(id);
+            }
+        }
+        
+        // Query data from cache with one MGET per shard
+        List<T> missIds = new ArrayList<>();
+        if (!redisIds.isEmpty()) {
+            List<String> keys = redisIds.stream().map(id -> keyPrefix + id).collect(Collectors.toList());
+            Map<String, byte[]> bytesMap = multiGet(keys);
+            for (int i = 0; i < redisIds.size(); i++) {
+                T id = redisIds.get(i);
+                byte[] bytes = bytesMap.get(keys.get(i));
+                
+                // Handle blank value
+                if (bytes != null && bytes.length == 0) {
+                    stats.nullHit();
+                    continue;
+                }
+                
+                R data = decode(keys.get(i), bytes, type);
+                if (data != null) {
+                    stats.hit();
+                    putLocal(keys.get(i), data);
+                    dataMap.put(id, data);
+                } else {
+                    stats.miss();
+                    missIds.add(id);
+                }
+            }
+        }
+        
+        // Query the misses from DB with one batch, save them to cache with one pipeline
+        if (!missIds.isEmpty()) {
+            Map<T, R> dbDataMap = loadFromDb(stats, batchFallback, missIds);
+            Map<String, R> writeMap = new HashMap<>(missIds.size());
+            for (T id : missIds) {
+                R data = dbDataMap != null ? dbDataMap.get(id) : null;
+                writeMap.put(keyPrefix + id, data);
+                if (data != null) {
+                    putLocal(keyPrefix + id, data);
+                    dataMap.put(id, data);
+                }
+            }
+            setMany(writeMap, time, unit);
+        }
+        
+        List<R> dataList = new ArrayList<>(dataMap.size());
+        for (T id : ids) {
+            R data = dataMap.get(id);
+            if (data != null) {
+                dataList.add(data);
+            }
+        }
+        return dataList;
+    }
+    
+    // The missing keys are left out
+    private Map<String, byte[]> multiGet(List<String> keys) {
+        Map<String, byte[]> bytesMap = new HashMap<>(keys.size());
+        redisShardRouter.group(keys).forEach((shard, shardKeys) -> {
+            List<byte[]> bytesList = shard.getByteRedisTemplate().opsForValue().multiGet(shardKeys);
+            if (bytesList == null) {
+                return;
+            }
+            for (int i = 0; i < shardKeys.size(); i++) {
+                if (bytesList.get(i) != null) {
+                    bytesMap.put(shardKeys.get(i), bytesList.get(i));
+                }
+            }
+        });
+        return bytesMap;
+    }
+    
+    // Write the entries with one pipeline per shard, null values are stored as the blank value with the null TTL
+    public void setMany(Map<String, ?> dataMap, Long time, TimeUnit unit) {
+        redisShardRouter.group(dataMap.keySet()).forEach((shard, shardKeys) ->
+            shard.getByteRedisTemplate().executePipelined((RedisCallback<Object>) connection -> {
+                for (String key : shardKeys) {
+                    Object data = dataMap.get(key);
+                    byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                    if (data == null) {
+                        connection.stringCommands().setEx(rawKey, cacheTtlPolicy.nullTtl(key, CACHE_NULL_TTL, TimeUnit.MINUTES), new byte[0]);
+                    } else {
+                        connection.stringCommands().setEx(rawKey, cacheTtlPolicy.ttl(key, time, unit), encode(key, data));
+                    }
+                }
+                return null;
+            })
+        );
+    }
+    
     public <T, R> R queryWithMutex(String keyPrefix, T id, Class<R> type, Long time, TimeUnit unit, Function<T, R> dbFallback) {
-        String key = CACHE_SHOP_KEY + id;
+        return queryWithMutex(keyPrefix, id, type, time, unit, dbFallback, true);
+    }
+    
+    public <T, R> R queryWithMutex(String keyPrefix, T id, Class<R> type, Long time, TimeUnit unit, Function<T, R> dbFallback, boolean cacheNull) {
+        String key = keyPrefix + id;
+        CacheMetrics.Stats stats = cacheMetrics.of(keyPrefix, CacheStrategy.MUTEX);
+        
+        // Query data from local cache
+        R localData = getLocal(key, type);
+        if (localData != null) {
+            stats.localHit();
+            return localData;
+        }
         
         // Query data from cache
-        String dataJson = stringRedisTemplate.opsForValue().get(key);
-        if (StrUtil.isNotBlank(dataJson)) {
-            return JSONUtil.toBean(dataJson, type);
+        byte[] bytes = getBytes(key);
+        R data = decode(key, bytes, type);
+        if (data != null) {
+            stats.hit();
+            putLocal(key, data);
+            return data;
         }
         
-        // Handle blank string
-        if (dataJson != null) {
+        // Handle blank value
+        if (bytes != null && bytes.length == 0) {
+            stats.nullHit();
             return null;
         }
         
-        R data;
-        String lockKey = LOCK_SHOP_KEY + id;
+        // Feat: Concurrent misses of the same key on this node share one rebuild instead of sleeping and retrying
+        //  A waiter serves the stale data after the timeout, without any it keeps waiting for the rebuild until the max wait
+        stats.miss();
+        try {
+            return singleFlight.execute(key, singleFlightTimeout, singleFlightMaxWait, TimeUnit.MILLISECONDS,
+                () -> rebuildWithMutex(stats, key, id, type, time, unit, dbFallback, cacheNull),
+                () -> getStale(stats, key, type));
+        } catch (TimeoutException e) {
+            throw busy(stats, key);
+        }
+    }
+    
+    private <T, R> R rebuildWithMutex(CacheMetrics.Stats stats, String key, T id, Class<R> type, Long time, TimeUnit unit, Function<T, R> dbFallback, boolean cacheNull) {
+        String lockKey = LOCK_CACHE_KEY + key;
+        
+        // If obtaining the lock is unsuccessful, another node is rebuilding, wait for it to write the cache
+        if (!tryLock(lockKey)) {
+            stats.lockContention();
+            return waitForRebuild(stats, key, type);
+        }
+        
         try {
-            // If obtaining the lock is unsuccessful, then retrieve it again
-            if (!tryLock(lockKey)) {
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, time, unit, dbFallback);
-            }
-            
             // DCL
-            dataJson = stringRedisTemplate.opsForValue().get(key);
-            if (StrUtil.isNotBlank(dataJson)) {
-                return JSONUtil.toBean(dataJson, type);
+            R data = get(key, type);
+            if (data != null) {
+                putLocal(key, data);
+                return data;
             }
             
             // Query data from DB
-            data = dbFallback.apply(id);
+            data = loadFromDb(stats, dbFallback, id);
             if (data == null) {
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                if (cacheNull) {
+                    setBlank(key, CACHE_NULL_TTL, TimeUnit.MINUTES);
+                }
                 return null;
             }
             
             // Save data to cache
-            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(data), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            set(key, data, time, unit);
+            putLocal(key, data);
+            return data;
         } finally {
             unLock(lockKey);
         }
-        
-        return data;
     }
     
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    // Same bounds as the waiters of the single flight, the stale data after the timeout, a busy failure after the max wait
+    private <R> R waitForRebuild(CacheMetrics.Stats stats, String key, Class<R> type) {
+        long begin = System.currentTimeMillis();
+        boolean isStaleChecked = false;
+        while (System.currentTimeMillis() < begin + singleFlightMaxWait) {
+            try {
+                Thread.sleep(REBUILD_POLL_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            
+            byte[] bytes = getBytes(key);
+            R data = decode(key, bytes, type);
+            if (data != null) {
+                putLocal(key, data);
+                return data;
+            }
+            if (bytes != null && bytes.length == 0) {
+                return null;
+            }
+            
+            if (!isStaleChecked && System.currentTimeMillis() >= begin + singleFlightTimeout) {
+                isStaleChecked = true;
+                R staleData = getStale(stats, key, type);
+                if (staleData != null) {
+                    return staleData;
+                }
+            }
+        }
+        throw busy(stats, key);
+    }
+    
+    // Serve the last known value when the rebuild cannot finish within the timeout, null if there is none
+    private <R> R getStale(CacheMetrics.Stats stats, String key, Class<R> type) {
+        R staleData = localCache.getStale(key, type);
+        if (staleData != null) {
+            stats.staleHit();
+            log.warn("Timed out waiting for cache rebuild, serve stale data, key is {}", key);
+        }
+        return staleData;
+    }
+    
+    // The DB is too slow for the rebuild, another query of it would only add to the load
+    private CacheBusyException busy(CacheMetrics.Stats stats, String key) {
+        stats.busyRejection();
+        log.warn("Timed out waiting for cache rebuild, no stale data, key is {}", key);
+        return new CacheBusyException("Timed out waiting for cache rebuild, key is " + key);
+    }
     
     public  <T, R> R queryWithLogicalExpiration(String keyPrefix, T id, Class<R> type, Long time, TimeUnit unit, Function<T, R> dbFallback) {
-        String key = CACHE_SHOP_KEY + id;
+        String key = keyPrefix + id;
+        CacheMetrics.Stats stats = cacheMetrics.of(keyPrefix, CacheStrategy.LOGICAL_EXPIRATION);
+        
+        // Query data from local cache
+        R localData = getLocal(key, type);
+        if (localData != null) {
+            stats.localHit();
+            return localData;
+        }
         
         // Query data from cache
-        String dataJson = get(key);
+        RedisData redisData = get(key, RedisData.class);
         
-        // If the shopJson does not exist, return null
-        if (StrUtil.isBlank(dataJson)) {
+        // If the data does not exist, return null
+        if (redisData == null) {
+            stats.miss();
             return null;
         }
         
-        RedisData redisData = JSONUtil.toBean(dataJson, RedisData.class);
-        R data = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        R data = toData(redisData, type);
         LocalDateTime expireTime = redisData.getExpireTime();
         
-        // If it is not expired, return the result
-        if (expireTime.isAfter(LocalDateTime.now())) {
+        // If it is not expired, return the result, unless it is picked for an early refresh
+        boolean isExpired = !expireTime.isAfter(LocalDateTime.now());
+        if (!isExpired && !shouldRefreshEarly(keyPrefix, redisData)) {
+            stats.hit();
+            putLocal(key, data);
             return data;
         }
         
-        // If it is expired, rebuild cache
-        String lockKey = LOCK_SHOP_KEY + id;
-        if (tryLock(lockKey)) {
-            // DCL
-            dataJson = get(key);
-            if (expireTime.isAfter(LocalDateTime.now())) {
-                return JSONUtil.toBean(dataJson, type);
+        // If it is expired, return the stale data and rebuild cache, the data refreshed early is still fresh
+        if (isExpired) {
+            stats.staleHit();
+        } else {
+            stats.hit();
+        }
+        String lockKey = LOCK_CACHE_KEY + key;
+        if (!tryLock(lockKey)) {
+            stats.lockContention();
+        } else {
+            // DCL, another thread may have rebuilt the cache after the first read
+            RedisData latestRedisData = get(key, RedisData.class);
+            if (latestRedisData != null && latestRedisData.getExpireTime().isAfter(expireTime)) {
+                unLock(lockKey);
+                return toData(latestRedisData, type);
             }
             
-            // Open a separate thread to rebuild the cache
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    R newData = dbFallback.apply(id);
-                    setWithLogicalExpiration(key, newData, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
+            // Open a separate thread to rebuild the cache, release the lock if the rebuild is not accepted
+            boolean isSubmitted = false;
+            try {
+                isSubmitted = cacheRebuildExecutor.submit(key, () -> {
+                    try {
+                        long begin = System.currentTimeMillis();
+                        R newData = loadFromDb(stats, dbFallback, id);
+                        setWithLogicalExpiration(key, newData, time, unit, System.currentTimeMillis() - begin);
+                    } finally {
+                        unLock(lockKey);
+                    }
+                });
+            } finally {
+                if (!isSubmitted) {
                     unLock(lockKey);
                 }
-            });
+            }
         }
         
         return data;
     }
     
+    // Feat: Count every lookup to detect the hot keys, including the lookups served locally, otherwise a hot key cools down
+    private <R> R getLocal(String key, Class<R> type) {
+        hotKeyDetector.record(key);
+        return localCache.get(key, type);
+    }
+    
+    // A hot key also gets a short-lived copy, so its lookups stop hitting one Redis node
+    private void putLocal(String key, Object data) {
+        localCache.put(key, data);
+        if (hotKeyDetector.isHot(key)) {
+            localCache.putHot(key, data);
+        }
+    }
+    
+    // Time every call of the DB fallback, it is where a miss spends most of its latency
+    private <T, R> R loadFromDb(CacheMetrics.Stats stats, Function<T, R> dbFallback, T id) {
+        long begin = System.nanoTime();
+        try {
+            return dbFallback.apply(id);
+        } catch (RuntimeException e) {
+            stats.fallbackError();
+            throw e;
+        } finally {
+            stats.rebuild(System.nanoTime() - begin);
+        }
+    }
+    
+    // The binary codec keeps the type of the data, JSON leaves it as a JSONObject to be converted
+    private <R> R toData(RedisData redisData, Class<R> type) {
+        Object data = redisData.getData();
+        if (data == null || type.isInstance(data)) {
+            return type.cast(data);
+        }
+        return JSONUtil.toBean((JSONObject) data, type);
+    }
+    
+    // Feat: Probabilistic early refresh (XFetch), refresh before the logical expiration with a probability
+    //  that grows as the expiration approaches and as the rebuild gets more expensive
+    //  now - rebuildCost * beta * ln(random) >= expireTime
+    private boolean shouldRefreshEarly(String keyPrefix, RedisData redisData) {
+        if (!ArrayUtil.contains(earlyRefreshPrefixes, keyPrefix)) {
+            return false;
+        }
+        
+        long rebuildCost = redisData.getRebuildCost() != null ? redisData.getRebuildCost() : earlyRefreshDefaultCost;
+        // 1 - nextDouble() falls in (0, 1], avoid ln(0)
+        double gap = -rebuildCost * earlyRefreshBeta * Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        return !LocalDateTime.now().plus((long) gap, ChronoUnit.MILLIS).isBefore(redisData.getExpireTime());
+    }
+    
     private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
+        Boolean flag = redisShardRouter.stringTemplate(key).opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
         return BooleanUtil.isTrue(flag);
     }
     
     private void unLock(String key) {
-        stringRedisTemplate.delete(key);
+        redisShardRouter.stringTemplate(key).delete(key);
     }
 }
@@ -0,0 +1,207 @@
+package com.hmdp.utils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+// Feat: Warm up the cache on startup, so the first minutes after a deploy or a Redis failover do not hit MySQL hard
+//  Runners are called before the application is marked as ready, so a blocking warm-up holds the readiness until it completes
+@Slf4j
+@Component
+public class CacheWarmUpRunner implements ApplicationRunner {
+    @Autowired
+    IShopService shopService;
+    @Autowired
+    IShopTypeService shopTypeService;
+    @Autowired
+    ISeckillVoucherService seckillVoucherService;
+    @Autowired
+    CacheUtils cacheUtils;
+    @Autowired
+    StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    SeckillStockSegments seckillStockSegments;
+    
+    @Value("${hmdp.cache.warm-up.enabled:false}")
+    private boolean enabled;
+    @Value("${hmdp.cache.warm-up.block-readiness:false}")
+    private boolean blockReadiness;
+    @Value("${hmdp.cache.warm-up.page-size:500}")
+    private int pageSize;
+    @Value("${hmdp.cache.warm-up.parallelism:4}")
+    private int parallelism;
+    
+    private final AtomicLong warmedShopCount = new AtomicLong();
+    private volatile String status = "IDLE";
+    
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        if (blockReadiness) {
+            warmUp();
+        } else {
+            Thread thread = new Thread(this::warmUp, "cache-warm-up");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+    
+    public void warmUp() {
+        status = "RUNNING";
+        long begin = System.currentTimeMillis();
+        try {
+            warmUpShopTypes();
+            warmUpShops();
+            warmUpSeckillStock();
+            status = "DONE";
+            log.info("Cache warm-up is done in {} ms, {} shops", System.currentTimeMillis() - begin, warmedShopCount.get());
+        } catch (Exception e) {
+            status = "FAILED";
+            log.error("Cache warm-up failed after {} shops", warmedShopCount.get(), e);
+        }
+    }
+    
+    public String getStatus() {
+        return status;
+    }
+    
+    public long getWarmedShopCount() {
+        return warmedShopCount.get();
+    }
+    
+    private void warmUpShopTypes() {
+        List<ShopType> shopTypeList = shopTypeService.list();
+        cacheUtils.set(CACHE_SHOP_TYPE_LIST_KEY, shopTypeList, CACHE_SHOP_TYPE_LIST_TTL, TimeUnit.MINUTES);
+        log.info("Cache warm-up, {} shop types", shopTypeList.size());
+    }
+    
+    // Load the shops page by page on this thread, write each page to Redis on the pool
+    //  The queue holds as many pages as the pool has threads, the loading thread writes the page itself when the queue is full
+    private void warmUpShops() throws InterruptedException {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            parallelism,
+            parallelism,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(parallelism),
+            new ThreadFactoryBuilder().setNameFormat("cache-warm-up-%d").build(),
+            new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        try {
+            long lastId = 0;
+            while (true) {
+                // Paging by id instead of offset, the cost of a page does not grow with the page number
+                List<Shop> shopList = shopService.lambdaQuery()
+                    .gt(Shop::getId, lastId)
+                    .orderByAsc(Shop::getId)
+                    .last("LIMIT " + pageSize)
+                    .list();
+                if (shopList.isEmpty()) {
+                    break;
+                }
+                lastId = shopList.get(shopList.size() - 1).getId();
+                executor.execute(() -> warmUpShopPage(shopList));
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.MINUTES);
+        }
+    }
+    
+    private void warmUpShopPage(List<Shop> shopList) {
+        Map<String, Shop> shopMap = shopList.stream()
+            .collect(Collectors.toMap(shop -> CACHE_SHOP_KEY + shop.getId(), Function.identity()));
+        cacheUtils.setMany(shopMap, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        
+        // GEOADD shop:geo:typeId x y shopId, one command per type in one pipeline
+        Map<Long, Map<String, Point>> geoMap = new HashMap<>();
+        for (Shop shop : shopList) {
+            if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+                continue;
+            }
+            geoMap.computeIfAbsent(shop.getTypeId(), typeId -> new HashMap<>())
+                .put(shop.getId().toString(), new Point(shop.getX(), shop.getY()));
+        }
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                geoMap.forEach((typeId, pointMap) -> operations.opsForGeo().add(SHOP_GEO_KEY + typeId, pointMap));
+                return null;
+            }
+        });
+        
+        long count = warmedShopCount.addAndGet(shopList.size());
+        log.info("Cache warm-up, {} shops", count);
+    }
+    
+    // The stock in Redis is the source of truth during a sale, only fill the missing keys
+    //  A voucher with orders in Redis is never seeded, the DB stock lags behind the Redis stock while the orders are saved async
+    private void warmUpSeckillStock() {
+        List<SeckillVoucher> voucherList = seckillVoucherService.lambdaQuery()
+            .gt(SeckillVoucher::getEndTime, LocalDateTime.now())
+            .list();
+        // The segmented stock is saved in buckets when the voucher is created
+        voucherList.removeIf((voucher) -> seckillStockSegments.segmentsOf(voucher.getVoucherId()) > 1);
+        List<Object> existsList = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                for (SeckillVoucher voucher : voucherList) {
+                    operations.hasKey(SECKILL_ORDER_KEY + voucher.getVoucherId());
+                }
+                return null;
+            }
+        });
+        List<SeckillVoucher> seedList = new ArrayList<>();
+        for (int i = 0; i < voucherList.size(); i++) {
+            if (Boolean.TRUE.equals(existsList.get(i))) {
+                log.warn("Seckill voucher {} has orders in Redis, its stock is not seeded from DB", voucherList.get(i).getVoucherId());
+            } else {
+                seedList.add(voucherList.get(i));
+            }
+        }
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                for (SeckillVoucher voucher : seedList) {
+                    operations.opsForValue().setIfAbsent(SECKILL_STOCK_KEY + voucher.getVoucherId(), voucher.getStock().toString());
+                }
+                return null;
+            }
+        });
+        log.info("Cache warm-up, {} seckill vouchers", seedList.size());
+    }
+}
@@ -0,0 +1,64 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.hmdp.entity.Customer;
+import com.hmdp.mapper.CustomerMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_CUSTOMER_KEY;
+import static com.hmdp.utils.RedisConstants.CUSTOMER_WHITELIST;
+
+// Feat: Load the keys of every customer into the bitmap whitelist on startup, adding the same keys again is harmless
+//  Only for the bitmap whitelist, the counting whitelist is built by CustomerWhitelistRotator
+@Slf4j
+@Component
+public class CustomerWhitelistLoader implements ApplicationRunner {
+    @Autowired
+    CustomerMapper customerMapper;
+    @Autowired
+    RedisBloomFilterUtils redisBloomFilterUtils;
+    
+    @Value("${hmdp.bloom-filter.whitelist:counting}")
+    private String whitelist;
+    @Value("${hmdp.bloom-filter.redis.load-on-startup:false}")
+    private boolean loadOnStartup;
+    @Value("${hmdp.bloom-filter.redis.batch-size:1000}")
+    private int batchSize;
+    
+    @Override
+    public void run(ApplicationArguments args) {
+        if ("bitmap".equals(whitelist) && loadOnStartup) {
+            load();
+        }
+    }
+    
+    public void load() {
+        long begin = System.currentTimeMillis();
+        long count = 0;
+        int lastId = 0;
+        while (true) {
+            List<Object> idList = customerMapper.selectObjs(new LambdaQueryWrapper<Customer>()
+                .select(Customer::getId)
+                .gt(Customer::getId, lastId)
+                .orderByAsc(Customer::getId)
+                .last("limit " + batchSize));
+            if (idList.isEmpty()) {
+                break;
+            }
+            redisBloomFilterUtils.addAll(CUSTOMER_WHITELIST, idList.stream()
+                .map(id -> CACHE_CUSTOMER_KEY + id)
+                .collect(Collectors.toList()));
+            lastId = ((Number) idList.get(idList.size() - 1)).intValue();
+            count += idList.size();
+        }
+        log.info("Customer whitelist is loaded in {} ms, {} customers", System.currentTimeMillis() - begin, count);
+    }
+}
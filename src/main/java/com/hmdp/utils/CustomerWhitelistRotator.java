@@ -0,0 +1,99 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.hmdp.entity.Customer;
+import com.hmdp.mapper.CustomerMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+// Feat: Rebuild the customer whitelist from tb_customer in the background and swap it in, so the counters do not drift
+//  and the filter is resized as the customers grow, the queries keep reading the current filter meanwhile
+//  Every rotation sizes the new filter for the customers counted before the scan times the headroom, which covers the
+//  customers added until the next rotation
+@Slf4j
+@Component
+public class CustomerWhitelistRotator implements ApplicationRunner {
+    @Autowired
+    CustomerMapper customerMapper;
+    @Autowired
+    RedisCountingBloomFilter redisCountingBloomFilter;
+    @Autowired
+    StringRedisTemplate stringRedisTemplate;
+    
+    @Value("${hmdp.bloom-filter.counting.enabled:false}")
+    private boolean enabled;
+    @Value("${hmdp.bloom-filter.whitelist:counting}")
+    private String whitelist;
+    @Value("${hmdp.bloom-filter.counting.batch-size:1000}")
+    private int batchSize;
+    @Value("${hmdp.bloom-filter.counting.headroom:2.0}")
+    private double headroom;
+    
+    // Build the whitelist on startup only if no node has built it yet
+    @Override
+    public void run(ApplicationArguments args) {
+        if (isEnabled() && !redisCountingBloomFilter.exists(CUSTOMER_WHITELIST)) {
+            rotate();
+        }
+    }
+    
+    @Scheduled(initialDelayString = "${hmdp.bloom-filter.counting.rotation-interval:86400000}", fixedDelayString = "${hmdp.bloom-filter.counting.rotation-interval:86400000}")
+    public void rotate() {
+        if (!isEnabled()) {
+            return;
+        }
+        
+        // Only one node rotates at a time
+        RedisLock lock = new RedisLock(LOCK_WHITELIST_ROTATION_KEY, LOCK_WHITELIST_ROTATION_TTL, stringRedisTemplate);
+        if (!lock.tryLock()) {
+            return;
+        }
+        
+        long begin = System.currentTimeMillis();
+        long expectedCount = (long) Math.ceil(customerMapper.selectCount(null) * headroom);
+        String filterKey = redisCountingBloomFilter.beginRotation(CUSTOMER_WHITELIST, expectedCount);
+        try {
+            long count = 0;
+            int lastId = 0;
+            while (true) {
+                List<Object> idList = customerMapper.selectObjs(new LambdaQueryWrapper<Customer>()
+                    .select(Customer::getId)
+                    .gt(Customer::getId, lastId)
+                    .orderByAsc(Customer::getId)
+                    .last("limit " + batchSize));
+                if (idList.isEmpty()) {
+                    break;
+                }
+                redisCountingBloomFilter.load(filterKey, idList.stream()
+                    .map(id -> CACHE_CUSTOMER_KEY + id)
+                    .collect(Collectors.toList()));
+                lastId = ((Number) idList.get(idList.size() - 1)).intValue();
+                count += idList.size();
+            }
+            
+            redisCountingBloomFilter.commitRotation(CUSTOMER_WHITELIST, filterKey);
+            log.info("Customer whitelist is rotated in {} ms, {} customers, filter is {}", System.currentTimeMillis() - begin, count, filterKey);
+        } catch (RuntimeException e) {
+            redisCountingBloomFilter.abortRotation(CUSTOMER_WHITELIST, filterKey);
+            log.error("Failed to rotate customer whitelist", e);
+        } finally {
+            lock.unLock();
+        }
+    }
+    
+    // The bitmap whitelist is loaded by CustomerWhitelistLoader instead
+    private boolean isEnabled() {
+        return enabled && "counting".equals(whitelist);
+    }
+}
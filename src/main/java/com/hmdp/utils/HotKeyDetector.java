@@ -0,0 +1,151 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// Feat: Detect the hot keys with a Count-Min sketch updated on every lookup, the counters are halved periodically
+//  so the estimate follows the recent traffic, a key whose estimate reaches the threshold is hot
+//  A second sketch of the same columns is halved every cold window, its estimate tells the cold keys from the warm ones
+@Component
+public class HotKeyDetector {
+    @Value("${hmdp.cache.hot-key.enabled:false}")
+    private boolean enabled;
+    @Value("${hmdp.cache.hot-key.width:16384}")
+    private int width;
+    @Value("${hmdp.cache.hot-key.threshold:1000}")
+    private int threshold;
+    
+    private static final int DEPTH = 4;
+    
+    private AtomicIntegerArray table;
+    private AtomicIntegerArray windowTable;
+    private int mask;
+    // Until the first cold window has passed, the window estimate does not cover a full window yet
+    private volatile boolean isWindowFull;
+    
+    // Hot key -> the time it became hot, dropped by the decay once it cools down
+    private final ConcurrentHashMap<String, Long> hotKeys = new ConcurrentHashMap<>();
+    
+    @PostConstruct
+    private void init() {
+        // Round the width up to a power of 2, so the index is a mask instead of a modulo
+        int tableWidth = Integer.highestOneBit(Math.max(width - 1, 1)) << 1;
+        mask = tableWidth - 1;
+        table = new AtomicIntegerArray(DEPTH * tableWidth);
+        windowTable = new AtomicIntegerArray(DEPTH * tableWidth);
+    }
+    
+    // Count a lookup of the key, return true if the key is hot
+    public boolean record(String key) {
+        if (!enabled) {
+            return false;
+        }
+        long[] columns = columns(key);
+        int estimate = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            estimate = Math.min(estimate, table.incrementAndGet(index(columns, i)));
+            windowTable.incrementAndGet(index(columns, i));
+        }
+        if (estimate < threshold) {
+            return false;
+        }
+        if (!hotKeys.containsKey(key)) {
+            hotKeys.putIfAbsent(key, System.currentTimeMillis());
+        }
+        return true;
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    public boolean isHot(String key) {
+        return enabled && hotKeys.containsKey(key);
+    }
+    
+    public int estimate(String key) {
+        long[] columns = columns(key);
+        int estimate = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            estimate = Math.min(estimate, table.get(index(columns, i)));
+        }
+        return estimate;
+    }
+    
+    // Lookups of the key in about the last cold window
+    public int windowEstimate(String key) {
+        long[] columns = columns(key);
+        int estimate = Integer.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            estimate = Math.min(estimate, windowTable.get(index(columns, i)));
+        }
+        return estimate;
+    }
+    
+    public boolean isWindowFull() {
+        return enabled && isWindowFull;
+    }
+    
+    // One column per row from the murmur3_128 double hashing of the Bloom filters, unlike String.hashCode two keys
+    //  sharing one hash in every row is as unlikely as a 128-bit collision
+    private long[] columns(String key) {
+        return RedisBloomFilterUtils.indexes(key, mask + 1, DEPTH);
+    }
+    
+    private int index(long[] columns, int row) {
+        return row * (mask + 1) + (int) columns[row];
+    }
+    
+    // Halve every counter, a lookup racing with the decay may lose its count, which the estimate tolerates
+    @Scheduled(fixedDelayString = "${hmdp.cache.hot-key.decay-interval:1000}")
+    public void decay() {
+        if (!enabled) {
+            return;
+        }
+        for (int i = 0; i < table.length(); i++) {
+            int count = table.get(i);
+            if (count != 0) {
+                table.set(i, count >>> 1);
+            }
+        }
+        // A key stays hot until its halved estimate falls below half the threshold, so it does not flap
+        hotKeys.keySet().removeIf(key -> estimate(key) < threshold / 2);
+    }
+    
+    @Scheduled(initialDelayString = "${hmdp.cache.hot-key.cold-window:600000}", fixedDelayString = "${hmdp.cache.hot-key.cold-window:600000}")
+    public void decayWindow() {
+        if (!enabled) {
+            return;
+        }
+        for (int i = 0; i < windowTable.length(); i++) {
+            int count = windowTable.get(i);
+            if (count != 0) {
+                windowTable.set(i, count >>> 1);
+            }
+        }
+        isWindowFull = true;
+    }
+    
+    public List<Map<String, Object>> hotKeys() {
+        List<Map<String, Object>> hotKeyList = new ArrayList<>(hotKeys.size());
+        hotKeys.forEach((key, hotSince) -> {
+            Map<String, Object> hotKey = new LinkedHashMap<>();
+            hotKey.put("key", key);
+            hotKey.put("estimate", estimate(key));
+            hotKey.put("hotSince", hotSince);
+            hotKeyList.add(hotKey);
+        });
+        hotKeyList.sort(Comparator.comparing((Map<String, Object> hotKey) -> (Integer) hotKey.get("estimate")).reversed());
+        return hotKeyList;
+    }
+}
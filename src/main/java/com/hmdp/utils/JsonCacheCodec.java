@@ -0,0 +1,24 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Feat: Plain JSON without a header, the format written by nodes before the binary codec existed
+public class JsonCacheCodec implements CacheCodec {
+    @Override
+    public byte[] encode(Object val) {
+        return JSONUtil.toJsonStr(val).getBytes(StandardCharsets.UTF_8);
+    }
+    
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        return JSONUtil.parse(new String(bytes, StandardCharsets.UTF_8)).toBean(type);
+    }
+    
+    @Override
+    public <R> List<R> decodeList(byte[] bytes, Class<R> elementType) {
+        return JSONUtil.toList(new String(bytes, StandardCharsets.UTF_8), elementType);
+    }
+}
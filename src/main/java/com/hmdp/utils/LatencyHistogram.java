@@ -0,0 +1,64 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Feat: Lock-free latency histogram with fixed buckets in milliseconds, percentiles are reported as the bucket's upper bound
+public class LatencyHistogram {
+    private static final long[] BOUNDS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+    
+    // The last bucket counts everything above the largest bound
+    private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+    
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+    
+    public void record(long millis) {
+        int i = 0;
+        while (i < BOUNDS.length && millis > BOUNDS[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        count.increment();
+        sum.add(millis);
+        if (millis > max.get()) {
+            max.accumulateAndGet(millis, Math::max);
+        }
+    }
+    
+    public long percentile(double p) {
+        long total = count.sum();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * p);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += buckets[i].sum();
+            if (seen >= rank) {
+                return BOUNDS[i];
+            }
+        }
+        return max.get();
+    }
+    
+    public Map<String, Object> snapshot() {
+        long total = count.sum();
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("count", total);
+        snapshot.put("avg", total == 0 ? 0 : sum.sum() / total);
+        snapshot.put("p50", percentile(0.5));
+        snapshot.put("p90", percentile(0.9));
+        snapshot.put("p99", percentile(0.99));
+        snapshot.put("max", max.get());
+        return snapshot;
+    }
+}
@@ -0,0 +1,119 @@
+package com.hmdp.utils;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATION_CHANNEL;
+
+// Feat: In-process L1 cache in front of Redis, invalidated on every node with Redis's pub/sub
+@Slf4j
+@Component
+public class LocalCache implements MessageListener {
+    @Autowired
+    StringRedisTemplate stringRedisTemplate;
+    
+    @Value("${hmdp.cache.local.enabled:false}")
+    private boolean enabled;
+    @Value("${hmdp.cache.local.maximum-size:1000}")
+    private long maximumSize;
+    @Value("${hmdp.cache.local.ttl:60}")
+    private long ttl;
+    @Value("${hmdp.cache.local.stale-ttl:600}")
+    private long staleTtl;
+    @Value("${hmdp.cache.hot-key.local-maximum-size:100}")
+    private long hotMaximumSize;
+    @Value("${hmdp.cache.hot-key.local-ttl:5}")
+    private long hotTtl;
+    
+    private Cache<String, Object> cache;
+    // Last known values, only served when a rebuild cannot finish in time
+    private Cache<String, Object> staleCache;
+    // Copies of the hot keys, served even if the L1 cache is disabled, the short TTL bounds the staleness
+    private Cache<String, Object> hotCache;
+    
+    @PostConstruct
+    private void init() {
+        // Evict the least recently used entries when the size limit is reached, the TTL bounds the staleness
+        // if an invalidation message is lost
+        cache = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(ttl, TimeUnit.SECONDS)
+            .build();
+        staleCache = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(staleTtl, TimeUnit.SECONDS)
+            .build();
+        hotCache = CacheBuilder.newBuilder()
+            .maximumSize(hotMaximumSize)
+            .expireAfterWrite(hotTtl, TimeUnit.SECONDS)
+            .build();
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    // The cached objects are shared by all callers, they should be treated as read-only
+    public <R> R get(String key, Class<R> type) {
+        Object hotVal = hotCache.getIfPresent(key);
+        if (type.isInstance(hotVal)) {
+            return type.cast(hotVal);
+        }
+        if (!enabled) {
+            return null;
+        }
+        Object val = cache.getIfPresent(key);
+        return type.isInstance(val) ? type.cast(val) : null;
+    }
+    
+    public <R> R getStale(String key, Class<R> type) {
+        Object val = staleCache.getIfPresent(key);
+        return type.isInstance(val) ? type.cast(val) : null;
+    }
+    
+    public void put(String key, Object val) {
+        if (val == null) {
+            return;
+        }
+        staleCache.put(key, val);
+        if (enabled) {
+            cache.put(key, val);
+        }
+    }
+    
+    public void putHot(String key, Object val) {
+        if (val != null) {
+            hotCache.put(key, val);
+        }
+    }
+    
+    public void invalidate(String key) {
+        cache.invalidate(key);
+        staleCache.invalidate(key);
+        hotCache.invalidate(key);
+    }
+    
+    // Drop the entry locally and notify the other nodes to drop theirs
+    public void publishInvalidation(String key) {
+        invalidate(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATION_CHANNEL, key);
+    }
+    
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        invalidate(key);
+        log.debug("Invalidate local cache, key is {}", key);
+    }
+}
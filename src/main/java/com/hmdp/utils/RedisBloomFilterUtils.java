@@ -1,37 +1,131 @@
 package com.hmdp.utils;
 
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Longs;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
-// Feat: Bloom Filter with Redis's Bitmap
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_FILTER_KEY;
+
+// Feat: Bloom Filter with Redis's Bitmap, k indexes from murmur3 double hashing, sized from the expected insertions and the FPP
+//  The bits of an item are set or read with one pipeline, changing the size requires to reload the filter under a new name
+//  Insert-only, a quarter of the memory of RedisCountingBloomFilter, which shares the sizing and the hashing
 @Component
 public class RedisBloomFilterUtils {
     @Autowired
-    RedisTemplate redisTemplate;
+    StringRedisTemplate stringRedisTemplate;
     
-    // @PostConstruct
-    public void init() {
-        String key1 = "customer:1";
-        String key2 = "customer:2";
-        String key3 = "customer:3";
-        
-        int hash1 = Math.abs(key1.hashCode());
-        int hash2 = Math.abs(key2.hashCode());
-        int hash3 = Math.abs(key3.hashCode());
-        
-        long index1 = (long) (hash1 % Math.pow(2, 32));
-        long index2 = (long) (hash2 % Math.pow(2, 32));
-        long index3 = (long) (hash3 % Math.pow(2, 32));
+    @Value("${hmdp.bloom-filter.redis.expected-insertions:1000000}")
+    private long expectedInsertions;
+    @Value("${hmdp.bloom-filter.redis.fpp:0.01}")
+    private double fpp;
+    @Value("${hmdp.bloom-filter.redis.batch-size:1000}")
+    private int batchSize;
+    
+    // A bitmap of Redis holds at most 2^32 bits
+    private static final long MAX_BIT_SIZE = 1L << 32;
+    
+    private long bitSize;
+    private int hashCount;
+    
+    @PostConstruct
+    private void init() {
+        bitSize = optimalSize(expectedInsertions, fpp, MAX_BIT_SIZE);
+        hashCount = optimalHashCount(bitSize, expectedInsertions);
+    }
+    
+    public void add(String filterName, String item) {
+        addAll(filterName, Collections.singletonList(item));
+    }
+    
+    // Bulk load, SETBIT of every item goes out in one pipeline per batch
+    public void addAll(String filterName, Collection<String> items) {
+        byte[] rawKey = (BLOOM_FILTER_KEY + filterName).getBytes(StandardCharsets.UTF_8);
+        List<String> batch = new ArrayList<>(Math.min(items.size(), batchSize));
+        for (String item : items) {
+            batch.add(item);
+            if (batch.size() == batchSize) {
+                setBits(rawKey, batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            setBits(rawKey, batch);
+        }
+    }
+    
+    private void setBits(byte[] rawKey, List<String> items) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String item : items) {
+                for (long index : indexes(item, bitSize, hashCount)) {
+                    connection.stringCommands().setBit(rawKey, index, true);
+                }
+            }
+            return null;
+        });
+    }
+    
+    public boolean check(String filterName, String item) {
+        byte[] rawKey = (BLOOM_FILTER_KEY + filterName).getBytes(StandardCharsets.UTF_8);
+        long[] indexes = indexes(item, bitSize, hashCount);
+        List<Object> bits = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (long index : indexes) {
+                connection.stringCommands().getBit(rawKey, index);
+            }
+            return null;
+        });
+        for (Object bit : bits) {
+            if (!Boolean.TRUE.equals(bit)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    public void delete(String filterName) {
+        stringRedisTemplate.delete(BLOOM_FILTER_KEY + filterName);
+    }
+    
+    // m = -n * ln(p) / (ln2)^2, capped at what one Redis key can address
+    public static long optimalSize(long expectedInsertions, double fpp, long maxSize) {
+        return Math.min(maxSize, (long) Math.ceil(-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2))));
+    }
+    
+    // k = m / n * ln2
+    public static int optimalHashCount(long size, long expectedInsertions) {
+        return Math.max(1, (int) Math.round((double) size / expectedInsertions * Math.log(2)));
+    }
+    
+    // Double hashing, g(i) = h1 + i * h2, the two halves of murmur3_128 act as two independent hashes
+    public static long[] indexes(String item, long size, int hashCount) {
+        byte[] hash = Hashing.murmur3_128().hashString(item, StandardCharsets.UTF_8).asBytes();
+        long hash1 = Longs.fromBytes(hash[7], hash[6], hash[5], hash[4], hash[3], hash[2], hash[1], hash[0]);
+        long hash2 = Longs.fromBytes(hash[15], hash[14], hash[13], hash[12], hash[11], hash[10], hash[9], hash[8]);
         
-        redisTemplate.opsForValue().setBit("whitelist", index1, true);
-        redisTemplate.opsForValue().setBit("whitelist", index2, true);
-        redisTemplate.opsForValue().setBit("whitelist", index3, true);
+        long[] indexes = new long[hashCount];
+        long combinedHash = hash1;
+        for (int i = 0; i < hashCount; i++) {
+            indexes[i] = (combinedHash & Long.MAX_VALUE) % size;
+            combinedHash += hash2;
+        }
+        return indexes;
+    }
+    
+    public long getBitSize() {
+        return bitSize;
     }
     
-    public boolean check(String checkItem, String key) {
-        int hash = Math.abs(key.hashCode());
-        long index = (long) (hash % Math.pow(2, 32));
-        return Boolean.TRUE.equals(redisTemplate.opsForValue().getBit(checkItem, index));
+    public int getHashCount() {
+        return hashCount;
     }
 }
@@ -14,19 +14,45 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TYPE_LIST_TTL = 30L;
     public static final String CACHE_CUSTOMER_KEY = "cache:customer:";
     public static final Long CACHE_CUSTOMER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_VOUCHER_OF_SHOP_KEY = "cache:voucher_of_shop:";
+    public static final Long CACHE_VOUCHER_OF_SHOP_TTL = 30L;
+    public static final String CACHE_INVALIDATION_CHANNEL = "cache:invalidation";
+    public static final String SHOP_TYPE_VERSION_KEY = "shop_type:version";
+    public static final String SHOP_TYPE_VERSION_CHANNEL = "shop_type:version";
     
     public static final String LOCK_VOUCHER_KEY = "lock:voucher";
     public static final Long LOCK_VOUCHER_TTL = 10L;
     
     public static final String LOCK_ORDER_KEY = "lock:order:";
     
+    public static final String LOCK_CACHE_KEY = "lock:";
+    
+    public static final String LOCK_WHITELIST_ROTATION_KEY = "lock:whitelist:rotation";
+    public static final Long LOCK_WHITELIST_ROTATION_TTL = 600L;
+    
+    public static final String LOCK_CACHE_OUTBOX_KEY = "lock:cache:outbox";
+    public static final Long LOCK_CACHE_OUTBOX_TTL = 30L;
+    
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_SEGMENTS_KEY = "seckill:segments:";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:sold_out";
+    public static final String SECKILL_LIMIT_KEY = "seckill:limit:";
+    public static final String STREAM_ORDERS_KEY = "stream.orders";
+    public static final String STREAM_ORDERS_GROUP = "g1";
+    public static final String STREAM_ORDERS_DEAD_LETTER_KEY = "stream.orders.dead";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
     public static final String USER_SIGN_KEY = "user:sign:";
     public static final String FOLLOWS_KEY = "follows:";
+    public static final String SHOP_BLOOM_FILTER_CHANNEL = "bloom:shop";
+    public static final String BLOOM_FILTER_KEY = "bloom:filter:";
+    public static final String COUNTING_BLOOM_FILTER_KEY = "bloom:counting:";
+    public static final String CUSTOMER_WHITELIST = "whitelist";
 }
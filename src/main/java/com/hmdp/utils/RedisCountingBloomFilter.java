@@ -0,0 +1,195 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.COUNTING_BLOOM_FILTER_KEY;
+
+// Feat: Counting Bloom filter with Redis's BITFIELD, every index is a 4-bit counter instead of a bit, so an item can be removed
+//  The filter is read through a pointer key, a rotation builds a new filter and swaps the pointer atomically
+//  The adds during a rotation go to both filters, an item added while the rotation also loads it is counted twice in the
+//  new filter, which only keeps a false positive after its removal until the next rotation
+//  The removes during a rotation only go to the current filter, the new filter may not have loaded the item yet, and
+//  decrementing the counters of an item it does not hold would break the counters of other items
+//  Every rotation sizes its filter for the items it loads, the size is part of the filter key, so a node reads it from
+//  the pointer, and a script finding the pointer moved since rejects the indexes computed for the other size
+@Slf4j
+@Component
+public class RedisCountingBloomFilter {
+    @Autowired
+    StringRedisTemplate stringRedisTemplate;
+    
+    @Value("${hmdp.bloom-filter.counting.expected-insertions:1000000}")
+    private long expectedInsertions;
+    @Value("${hmdp.bloom-filter.counting.fpp:0.01}")
+    private double fpp;
+    @Value("${hmdp.bloom-filter.counting.old-filter-ttl:60}")
+    private long oldFilterTtl;
+    
+    // BITFIELD addresses at most 2^32 bits, that is 2^30 counters of 4 bits
+    private static final long MAX_COUNTER_SIZE = 1L << 30;
+    
+    // Returned by a script when a pointer no longer points to the filter the indexes were computed for
+    private static final long STALE = -1;
+    private static final int MAX_ATTEMPTS = 3;
+    
+    private static final BitFieldSubCommands.BitFieldType COUNTER_TYPE = BitFieldSubCommands.BitFieldType.unsigned(4);
+    
+    private static final DefaultRedisScript<Long> ADD_SCRIPT;
+    private static final DefaultRedisScript<Long> REMOVE_SCRIPT;
+    private static final DefaultRedisScript<Long> CHECK_SCRIPT;
+    private static final DefaultRedisScript<Long> ROTATE_SCRIPT;
+    
+    static {
+        ADD_SCRIPT = new DefaultRedisScript<>();
+        ADD_SCRIPT.setLocation(new ClassPathResource("CountingBloomAdd.lua"));
+        ADD_SCRIPT.setResultType(Long.class);
+        REMOVE_SCRIPT = new DefaultRedisScript<>();
+        REMOVE_SCRIPT.setLocation(new ClassPathResource("CountingBloomRemove.lua"));
+        REMOVE_SCRIPT.setResultType(Long.class);
+        CHECK_SCRIPT = new DefaultRedisScript<>();
+        CHECK_SCRIPT.setLocation(new ClassPathResource("CountingBloomCheck.lua"));
+        CHECK_SCRIPT.setResultType(Long.class);
+        ROTATE_SCRIPT = new DefaultRedisScript<>();
+        ROTATE_SCRIPT.setLocation(new ClassPathResource("CountingBloomRotate.lua"));
+        ROTATE_SCRIPT.setResultType(Long.class);
+    }
+    
+    // Filter name -> the current and the rebuilt filter as last read from the pointers, read again when a script finds them moved
+    private final Map<String, List<String>> filterKeysMap = new ConcurrentHashMap<>();
+    
+    public void add(String filterName, String item) {
+        execute(ADD_SCRIPT, filterName, 2, item);
+    }
+    
+    // Only remove an item confirmed against the source of truth, e.g. the DB row that was actually deleted
+    //  The membership check of the script is probabilistic, it cannot tell a false positive from a member, so removing
+    //  an item that was never added decrements the counters of other items and creates false negatives
+    public boolean remove(String filterName, String item) {
+        Long result = execute(REMOVE_SCRIPT, filterName, 1, item);
+        return result != null && result == 1;
+    }
+    
+    // A filter still rotating after the attempts allows the item, same as a filter not built yet
+    public boolean check(String filterName, String item) {
+        Long result = execute(CHECK_SCRIPT, filterName, 1, item);
+        return result == null || result != 0;
+    }
+    
+    // The scripts take the filter keys the indexes are computed for, then the indexes of every filter
+    //  A rotation swaps the pointers rarely, a stale read costs one more round trip
+    private Long execute(DefaultRedisScript<Long> script, String filterName, int filterCount, String item) {
+        List<String> pointerKeys = pointerKeys(filterName).subList(0, filterCount);
+        List<String> filterKeys = filterKeysMap.get(filterName);
+        Long result = null;
+        for (int i = 0; i < MAX_ATTEMPTS; i++) {
+            if (filterKeys == null) {
+                filterKeys = stringRedisTemplate.opsForValue().multiGet(pointerKeys(filterName));
+                filterKeysMap.put(filterName, filterKeys);
+            }
+            List<String> args = new ArrayList<>();
+            for (int f = 0; f < filterCount; f++) {
+                String filterKey = filterKeys.get(f);
+                args.add(filterKey != null ? filterKey : "");
+            }
+            for (int f = 0; f < filterCount; f++) {
+                String filterKey = filterKeys.get(f);
+                long[] indexes = filterKey != null ? indexes(filterKey, item) : new long[0];
+                args.add(String.valueOf(indexes.length));
+                Arrays.stream(indexes).forEach((index) -> args.add(String.valueOf(index)));
+            }
+            result = stringRedisTemplate.execute(script, pointerKeys, args.toArray());
+            if (result == null || result != STALE) {
+                return result;
+            }
+            filterKeys = null;
+        }
+        log.warn("Filter {} is still rotating after {} attempts", filterName, MAX_ATTEMPTS);
+        return result;
+    }
+    
+    // Point the rebuilt filter at a new key sized for the expected items, the adds from now on also go to it
+    //  The configured expected insertions are the minimum
+    public String beginRotation(String filterName, long expectedItems) {
+        long insertions = Math.max(expectedInsertions, expectedItems);
+        long counterSize = RedisBloomFilterUtils.optimalSize(insertions, fpp, MAX_COUNTER_SIZE);
+        int hashCount = RedisBloomFilterUtils.optimalHashCount(counterSize, insertions);
+        String filterKey = COUNTING_BLOOM_FILTER_KEY + "{" + filterName + "}:" + System.currentTimeMillis() + ":" + counterSize + ":" + hashCount;
+        stringRedisTemplate.opsForValue().set(nextPointerKey(filterName), filterKey);
+        filterKeysMap.remove(filterName);
+        return filterKey;
+    }
+    
+    // Bulk load into the rebuilt filter, the BITFIELD of every item goes out in one pipeline
+    public void load(String filterKey, Collection<String> items) {
+        byte[] rawKey = filterKey.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String item : items) {
+                BitFieldSubCommands subCommands = BitFieldSubCommands.create();
+                for (long index : indexes(filterKey, item)) {
+                    subCommands = subCommands.incr(COUNTER_TYPE)
+                        .valueAt(BitFieldSubCommands.Offset.offset(index).multipliedByTypeLength())
+                        .overflow(BitFieldSubCommands.BitFieldIncrBy.Overflow.SAT)
+                        .by(1);
+                }
+                connection.stringCommands().bitField(rawKey, subCommands);
+            }
+            return null;
+        });
+    }
+    
+    // Swap the pointer to the rebuilt filter, the old filter expires after the in-flight checks are done
+    public void commitRotation(String filterName, String filterKey) {
+        stringRedisTemplate.execute(ROTATE_SCRIPT, pointerKeys(filterName), filterKey, String.valueOf(oldFilterTtl));
+        filterKeysMap.remove(filterName);
+    }
+    
+    // A failed rotation leaves the current filter as is
+    public void abortRotation(String filterName, String filterKey) {
+        stringRedisTemplate.delete(Arrays.asList(nextPointerKey(filterName), filterKey));
+        filterKeysMap.remove(filterName);
+    }
+    
+    public boolean exists(String filterName) {
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(currentPointerKey(filterName)));
+    }
+    
+    // The hash tag keeps the pointers and the filters of one name on the same node
+    private String currentPointerKey(String filterName) {
+        return COUNTING_BLOOM_FILTER_KEY + "{" + filterName + "}:current";
+    }
+    
+    private String nextPointerKey(String filterName) {
+        return COUNTING_BLOOM_FILTER_KEY + "{" + filterName + "}:next";
+    }
+    
+    private List<String> pointerKeys(String filterName) {
+        return Arrays.asList(currentPointerKey(filterName), nextPointerKey(filterName));
+    }
+    
+    // The key ends with the counter size and the hash count, the filters built before ended with the timestamp and
+    //  used the configured size
+    private long[] indexes(String filterKey, String item) {
+        String[] parts = filterKey.substring(filterKey.lastIndexOf("}:") + 2).split(":");
+        if (parts.length == 3) {
+            return RedisBloomFilterUtils.indexes(item, Long.parseLong(parts[1]), Integer.parseInt(parts[2]));
+        }
+        long counterSize = RedisBloomFilterUtils.optimalSize(expectedInsertions, fpp, MAX_COUNTER_SIZE);
+        return RedisBloomFilterUtils.indexes(item, counterSize, RedisBloomFilterUtils.optimalHashCount(counterSize, expectedInsertions));
+    }
+}
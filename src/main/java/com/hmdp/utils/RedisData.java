@@ -9,4 +9,6 @@ import java.time.LocalDateTime;
 public class RedisData {
     private LocalDateTime expireTime;
     private Object data;
+    // Milliseconds taken to load the data, used by the probabilistic early refresh
+    private Long rebuildCost;
 }
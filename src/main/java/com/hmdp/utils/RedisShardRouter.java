@@ -0,0 +1,173 @@
+package com.hmdp.utils;
+
+import com.google.common.hash.Hashing;
+import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Feat: Client-side sharding of the keys over several Redis nodes with a consistent hash ring
+//  Every node owns many virtual nodes placed by its name, so adding or removing a node only moves the keys of its
+//  share of the ring, keep the names stable when changing the hosts
+//  A key with a hash tag, e.g. seckill:stock:{1:0}, is placed by the tag only, so the keys of one tag stay on one node
+//  Without configured shards every key goes to spring.redis
+@Slf4j
+@Component
+@ConfigurationProperties(prefix = "hmdp.redis")
+public class RedisShardRouter {
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    private RedisTemplate<String, byte[]> byteRedisTemplate;
+    
+    @Getter
+    @Setter
+    private List<ShardProperties> shards = new ArrayList<>();
+    @Getter
+    @Setter
+    private int virtualNodes = 160;
+    
+    private final TreeMap<Integer, Shard> ring = new TreeMap<>();
+    private final List<Shard> shardList = new ArrayList<>();
+    
+    @PostConstruct
+    private void init() {
+        if (shards.isEmpty()) {
+            shardList.add(new Shard("primary", stringRedisTemplate, byteRedisTemplate, null));
+        } else {
+            for (ShardProperties properties : shards) {
+                shardList.add(createShard(properties));
+            }
+        }
+        
+        for (Shard shard : shardList) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(shard.name + "#" + i), shard);
+            }
+        }
+        log.info("Redis shard ring is built with {} shards", shardList.size());
+    }
+    
+    private Shard createShard(ShardProperties properties) {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(properties.getHost(), properties.getPort());
+        if (properties.getPassword() != null) {
+            configuration.setPassword(properties.getPassword());
+        }
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        
+        StringRedisTemplate shardStringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        
+        RedisTemplate<String, byte[]> shardByteRedisTemplate = new RedisTemplate<>();
+        shardByteRedisTemplate.setConnectionFactory(connectionFactory);
+        shardByteRedisTemplate.setKeySerializer(new StringRedisSerializer());
+        shardByteRedisTemplate.setValueSerializer(RedisSerializer.byteArray());
+        shardByteRedisTemplate.afterPropertiesSet();
+        
+        return new Shard(properties.getName(), shardStringRedisTemplate, shardByteRedisTemplate, connectionFactory);
+    }
+    
+    @PreDestroy
+    private void destroy() {
+        for (Shard shard : shardList) {
+            if (shard.connectionFactory != null) {
+                shard.connectionFactory.destroy();
+            }
+        }
+    }
+    
+    public Shard shardOf(String key) {
+        if (shardList.size() == 1) {
+            return shardList.get(0);
+        }
+        Map.Entry<Integer, Shard> entry = ring.ceilingEntry(hash(hashTagOf(key)));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+    
+    public StringRedisTemplate stringTemplate(String key) {
+        return shardOf(key).stringRedisTemplate;
+    }
+    
+    public RedisTemplate<String, byte[]> byteTemplate(String key) {
+        return shardOf(key).byteRedisTemplate;
+    }
+    
+    // Group the keys by their shard for the multi-key commands, the order of the keys is kept within a shard
+    public Map<Shard, List<String>> group(Collection<String> keys) {
+        Map<Shard, List<String>> keyMap = new LinkedHashMap<>();
+        for (String key : keys) {
+            keyMap.computeIfAbsent(shardOf(key), shard -> new ArrayList<>()).add(key);
+        }
+        return keyMap;
+    }
+    
+    // Same rule as Redis Cluster, the content of the first non-empty {...}
+    static String hashTagOf(String key) {
+        int start = key.indexOf('{');
+        if (start >= 0) {
+            int end = key.indexOf('}', start + 1);
+            if (end > start + 1) {
+                return key.substring(start + 1, end);
+            }
+        }
+        return key;
+    }
+    
+    private static int hash(String key) {
+        return Hashing.murmur3_32_fixed().hashString(key, StandardCharsets.UTF_8).asInt();
+    }
+    
+    public static class Shard {
+        private final String name;
+        private final StringRedisTemplate stringRedisTemplate;
+        private final RedisTemplate<String, byte[]> byteRedisTemplate;
+        private final LettuceConnectionFactory connectionFactory;
+        
+        Shard(String name, StringRedisTemplate stringRedisTemplate, RedisTemplate<String, byte[]> byteRedisTemplate, LettuceConnectionFactory connectionFactory) {
+            this.name = name;
+            this.stringRedisTemplate = stringRedisTemplate;
+            this.byteRedisTemplate = byteRedisTemplate;
+            this.connectionFactory = connectionFactory;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public StringRedisTemplate getStringRedisTemplate() {
+            return stringRedisTemplate;
+        }
+        
+        public RedisTemplate<String, byte[]> getByteRedisTemplate() {
+            return byteRedisTemplate;
+        }
+    }
+    
+    @Data
+    public static class ShardProperties {
+        // Identifies the node on the ring, keep it when the host changes
+        private String name;
+        private String host;
+        private int port = 6379;
+        private String password;
+    }
+}
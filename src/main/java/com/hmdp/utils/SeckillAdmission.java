@@ -0,0 +1,146 @@
+package com.hmdp.utils;
+
+import com.google.common.util.concurrent.RateLimiter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_LIMIT_KEY;
+
+// Feat: Admission control of the seckill, a spike is shed before it saturates the Tomcat threads, the Lettuce pool and Redisson
+//  A token bucket per node smooths the rate, a few requests wait for a token, the rest are rejected at once
+//  Sliding windows in Redis limit the rate of a voucher over all the nodes and the rate of a user on a voucher
+@Slf4j
+@Component
+public class SeckillAdmission {
+    public enum Decision {
+        ADMITTED, NODE_LIMITED, VOUCHER_LIMITED, USER_LIMITED
+    }
+    
+    @Autowired
+    StringRedisTemplate stringRedisTemplate;
+    
+    @Value("${hmdp.seckill.admission.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.seckill.admission.permits-per-second:1000}")
+    private double permitsPerSecond;
+    @Value("${hmdp.seckill.admission.max-waiting:200}")
+    private int maxWaiting;
+    @Value("${hmdp.seckill.admission.max-wait:100}")
+    private long maxWait;
+    @Value("${hmdp.seckill.admission.window:1000}")
+    private long window;
+    @Value("${hmdp.seckill.admission.voucher-limit:5000}")
+    private long voucherLimit;
+    @Value("${hmdp.seckill.admission.user-limit:5}")
+    private long userLimit;
+    
+    private static final DefaultRedisScript<Long> ADMISSION_SCRIPT;
+    static {
+        ADMISSION_SCRIPT = new DefaultRedisScript<>();
+        ADMISSION_SCRIPT.setLocation(new ClassPathResource("SeckillAdmission.lua"));
+        ADMISSION_SCRIPT.setResultType(Long.class);
+    }
+    
+    private RateLimiter rateLimiter;
+    private Semaphore waitingSlots;
+    
+    private final LongAdder admittedCount = new LongAdder();
+    private final LongAdder queuedCount = new LongAdder();
+    private final LongAdder nodeShedCount = new LongAdder();
+    private final LongAdder voucherShedCount = new LongAdder();
+    private final LongAdder userShedCount = new LongAdder();
+    
+    @PostConstruct
+    private void init() {
+        rateLimiter = RateLimiter.create(permitsPerSecond);
+        waitingSlots = new Semaphore(maxWaiting);
+    }
+    
+    public Decision admit(Long voucherId, Long userId) {
+        if (!enabled) {
+            return Decision.ADMITTED;
+        }
+        
+        if (!acquireToken()) {
+            nodeShedCount.increment();
+            return Decision.NODE_LIMITED;
+        }
+        
+        Decision decision = checkWindows(voucherId, userId);
+        switch (decision) {
+            case VOUCHER_LIMITED:
+                voucherShedCount.increment();
+                break;
+            case USER_LIMITED:
+                userShedCount.increment();
+                break;
+            default:
+                admittedCount.increment();
+        }
+        return decision;
+    }
+    
+    // Take a token at once, otherwise wait for one if a waiting slot is free
+    private boolean acquireToken() {
+        if (rateLimiter.tryAcquire()) {
+            return true;
+        }
+        if (!waitingSlots.tryAcquire()) {
+            return false;
+        }
+        try {
+            queuedCount.increment();
+            return rateLimiter.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+        } finally {
+            waitingSlots.release();
+        }
+    }
+    
+    // The keys of a voucher share its hash tag, the limits fail open if Redis is not available
+    private Decision checkWindows(Long voucherId, Long userId) {
+        long now = System.currentTimeMillis();
+        long current = now / window;
+        String voucherKey = SECKILL_LIMIT_KEY + "{" + voucherId + "}:";
+        String userKey = voucherKey + "user:" + userId + ":";
+        try {
+            int res = stringRedisTemplate.execute(
+                ADMISSION_SCRIPT,
+                Arrays.asList(voucherKey + current, voucherKey + (current - 1), userKey + current, userKey + (current - 1)),
+                String.valueOf(window),
+                String.valueOf(now % window),
+                String.valueOf(voucherLimit),
+                String.valueOf(userLimit)
+            ).intValue();
+            return res == 1 ? Decision.VOUCHER_LIMITED : res == 2 ? Decision.USER_LIMITED : Decision.ADMITTED;
+        } catch (RuntimeException e) {
+            log.error("Failed to check the seckill limits of voucher {}", voucherId, e);
+            return Decision.ADMITTED;
+        }
+    }
+    
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("permitsPerSecond", rateLimiter.getRate());
+        metrics.put("waiting", maxWaiting - waitingSlots.availablePermits());
+        metrics.put("admitted", admittedCount.sum());
+        metrics.put("queued", queuedCount.sum());
+        metrics.put("nodeShed", nodeShedCount.sum());
+        metrics.put("voucherShed", voucherShedCount.sum());
+        metrics.put("userShed", userShedCount.sum());
+        return metrics;
+    }
+}
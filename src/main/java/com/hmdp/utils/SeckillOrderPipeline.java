@@ -0,0 +1,402 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.BusySpinWaitStrategy;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.EventTranslator;
+import com.lmax.disruptor.ExceptionHandler;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.SleepingWaitStrategy;
+import com.lmax.disruptor.TimeoutException;
+import com.lmax.disruptor.WaitStrategy;
+import com.lmax.disruptor.YieldingWaitStrategy;
+import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// Feat: Ring buffer pipeline of the seckill orders, validation -> persistence -> notification
+//  The events are allocated once and reused, a request reserves a slot before taking the stock and is rejected on a full ring,
+//  so a publish never waits for a slot, with the WAL the publishes serialize on a lock that keeps the WAL and the ring in order
+//  Each stage sees a batch of the events at once, the persistence saves the whole batch in one transaction
+//  With the WAL, an order is logged before it is published, and the notification checkpoints the orders it has passed
+//  An order failing for good goes to the dead letter, an order failing on a DB outage is retried in the background,
+//  the checkpoint stops before the oldest order being retried and moves on once the DB recovers
+@Slf4j
+@Component
+public class SeckillOrderPipeline {
+    @Autowired
+    SeckillOrderWal seckillOrderWal;
+    
+    @Value("${hmdp.seckill.pipeline.ring-size:65536}")
+    private int ringSize;
+    @Value("${hmdp.seckill.pipeline.batch-size:100}")
+    private int batchSize;
+    @Value("${hmdp.seckill.pipeline.max-retries:5}")
+    private int maxRetries;
+    @Value("${hmdp.seckill.pipeline.retry-backoff:100}")
+    private long retryBackoff;
+    @Value("${hmdp.seckill.pipeline.retry-budget:5000}")
+    private long retryBudget;
+    @Value("${hmdp.seckill.pipeline.wait-strategy:blocking}")
+    private String waitStrategy;
+    
+    private Disruptor<OrderEvent> disruptor;
+    private volatile RingBuffer<OrderEvent> ringBuffer;
+    private final Object publishLock = new Object();
+    private final AtomicInteger reservedCount = new AtomicInteger();
+    private Consumer<List<VoucherOrder>> persister;
+    private BiConsumer<VoucherOrder, RuntimeException> deadLetter;
+    
+    // The orders not saved on a DB outage, in the WAL order, the head bounds the checkpoint
+    private final ConcurrentLinkedDeque<RetryOrder> retryOrders = new ConcurrentLinkedDeque<>();
+    
+    private final LongAdder publishedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder invalidCount = new LongAdder();
+    private final LongAdder savedCount = new LongAdder();
+    private final LongAdder failedCount = new LongAdder();
+    private final LongAdder retriedCount = new LongAdder();
+    private final LongAdder deadLetterCount = new LongAdder();
+    
+    // The persister saves a batch of orders, it throws if the batch is not saved
+    //  The dead letter keeps an order that can never be saved and gives its stock back, it throws if it fails
+    public synchronized void start(Consumer<List<VoucherOrder>> persister, BiConsumer<VoucherOrder, RuntimeException> deadLetter) {
+        if (disruptor != null) {
+            return;
+        }
+        this.persister = persister;
+        this.deadLetter = deadLetter;
+        disruptor = new Disruptor<>(OrderEvent::new, ringSize, (runnable) -> {
+            Thread thread = new Thread(runnable, "seckill-order-pipeline");
+            thread.setDaemon(true);
+            return thread;
+        }, ProducerType.MULTI, waitStrategyOf(waitStrategy));
+        disruptor.setDefaultExceptionHandler(new LogExceptionHandler());
+        disruptor.handleEventsWith(new ValidationHandler())
+            .then(new PersistenceHandler())
+            .then(new NotificationHandler());
+        ringBuffer = disruptor.start();
+        if (seckillOrderWal.isEnabled()) {
+            seckillOrderWal.open((voucherOrder, walPosition) -> ringBuffer.publishEvent(translatorOf(
+                voucherOrder.getId(), voucherOrder.getUserId(), voucherOrder.getVoucherId(), walPosition
+            )));
+        }
+        log.info("Seckill order pipeline is started, ring size is {}, wait strategy is {}", ringSize, waitStrategy);
+    }
+    
+    public boolean isStarted() {
+        return ringBuffer != null;
+    }
+    
+    // Reserve a slot before taking the stock in Redis, a full ring rejects the request instead of blocking the request thread
+    //  The reserved slots never exceed the free ones, a claim of a reserved slot only lowers both, so a publish never waits
+    public boolean tryReserve() {
+        RingBuffer<OrderEvent> current = ringBuffer;
+        if (current == null) {
+            return false;
+        }
+        while (true) {
+            int reserved = reservedCount.get();
+            if (reserved >= current.remainingCapacity()) {
+                rejectedCount.increment();
+                return false;
+            }
+            if (reservedCount.compareAndSet(reserved, reserved + 1)) {
+                return true;
+            }
+        }
+    }
+    
+    // The stock is not taken, give the slot back
+    public void cancelReservation() {
+        reservedCount.decrementAndGet();
+    }
+    
+    // Publish into the slot reserved by the caller
+    //  The WAL and the ring keep the same order, so a checkpoint never passes an order that is not handled yet
+    public void publish(long orderId, Long userId, Long voucherId) {
+        if (!seckillOrderWal.isEnabled()) {
+            publish(translatorOf(orderId, userId, voucherId, -1));
+            return;
+        }
+        
+        long walPosition;
+        synchronized (publishLock) {
+            walPosition = seckillOrderWal.append(orderId, userId, voucherId);
+            publish(translatorOf(orderId, userId, voucherId, walPosition));
+        }
+        seckillOrderWal.awaitDurable(walPosition);
+    }
+    
+    private void publish(EventTranslator<OrderEvent> translator) {
+        ringBuffer.publishEvent(translator);
+        reservedCount.decrementAndGet();
+        publishedCount.increment();
+    }
+    
+    private static EventTranslator<OrderEvent> translatorOf(long orderId, Long userId, Long voucherId, long walPosition) {
+        return (event, sequence) -> {
+            event.voucherOrder.setId(orderId).setUserId(userId).setVoucherId(voucherId);
+            event.walPosition = walPosition;
+            event.valid = false;
+            event.saved = false;
+            event.deadLettered = false;
+        };
+    }
+    
+    private static WaitStrategy waitStrategyOf(String name) {
+        switch (name) {
+            case "sleeping":
+                return new SleepingWaitStrategy();
+            case "yielding":
+                return new YieldingWaitStrategy();
+            case "busy-spin":
+                return new BusySpinWaitStrategy();
+            default:
+                return new BlockingWaitStrategy();
+        }
+    }
+    
+    // Called by the owner of the persister, so the published events are drained before the beans they use are destroyed
+    public synchronized void shutdown() {
+        if (disruptor == null) {
+            return;
+        }
+        try {
+            disruptor.shutdown(10, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            log.error("Seckill order pipeline is not drained in time, remaining capacity is {}", ringBuffer.remainingCapacity());
+            disruptor.halt();
+        }
+        seckillOrderWal.close();
+        disruptor = null;
+        ringBuffer = null;
+    }
+    
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("started", isStarted());
+        metrics.put("waitStrategy", waitStrategy);
+        metrics.put("ringSize", ringSize);
+        RingBuffer<OrderEvent> current = ringBuffer;
+        metrics.put("remainingCapacity", current != null ? current.remainingCapacity() : ringSize);
+        metrics.put("published", publishedCount.sum());
+        metrics.put("reserved", reservedCount.get());
+        metrics.put("rejected", rejectedCount.sum());
+        metrics.put("invalid", invalidCount.sum());
+        metrics.put("saved", savedCount.sum());
+        metrics.put("failed", failedCount.sum());
+        metrics.put("retried", retriedCount.sum());
+        metrics.put("deadLetter", deadLetterCount.sum());
+        metrics.put("retrying", retryOrders.size());
+        metrics.put("checkpointStalled", !retryOrders.isEmpty());
+        metrics.put("wal", seckillOrderWal.metrics());
+        return metrics;
+    }
+    
+    private static class OrderEvent {
+        private final VoucherOrder voucherOrder = new VoucherOrder();
+        private long walPosition;
+        private boolean valid;
+        private boolean saved;
+        private boolean deadLettered;
+    }
+    
+    // A copy of the order, the event is reused once the notification passes it
+    private static class RetryOrder {
+        private final VoucherOrder voucherOrder;
+        private final long checkpoint;
+        
+        RetryOrder(VoucherOrder voucherOrder, long checkpoint) {
+            this.voucherOrder = new VoucherOrder().setId(voucherOrder.getId())
+                .setUserId(voucherOrder.getUserId()).setVoucherId(voucherOrder.getVoucherId());
+            this.checkpoint = checkpoint;
+        }
+    }
+    
+    private class ValidationHandler implements EventHandler<OrderEvent> {
+        @Override
+        public void onEvent(OrderEvent event, long sequence, boolean endOfBatch) {
+            VoucherOrder voucherOrder = event.voucherOrder;
+            event.valid = voucherOrder.getId() != null && voucherOrder.getId() > 0
+                && voucherOrder.getUserId() != null && voucherOrder.getVoucherId() != null;
+            if (!event.valid) {
+                invalidCount.increment();
+                log.error("Invalid order {}", voucherOrder);
+            }
+        }
+    }
+    
+    // The events of a batch stay in the ring until the notification passes them, so they are marked after the flush
+    private class PersistenceHandler implements EventHandler<OrderEvent> {
+        private final List<OrderEvent> eventList = new ArrayList<>();
+        private final List<VoucherOrder> voucherOrderList = new ArrayList<>();
+        
+        @Override
+        public void onEvent(OrderEvent event, long sequence, boolean endOfBatch) {
+            if (event.valid) {
+                eventList.add(event);
+                voucherOrderList.add(event.voucherOrder);
+            }
+            if (eventList.size() >= batchSize || (endOfBatch && !eventList.isEmpty())) {
+                flush();
+            }
+        }
+        
+        private void flush() {
+            try {
+                persister.accept(voucherOrderList);
+                eventList.forEach((event) -> event.saved = true);
+            } catch (RuntimeException e) {
+                // Save the orders one by one, so one bad order does not fail the whole batch
+                //  The retries of all the orders share one budget, the persistence thread is never held longer by a batch
+                //  While orders are waiting for the background retry, the DB is known to be failing, each order is tried once
+                log.error("Failed to save {} orders in a batch, save them one by one", voucherOrderList.size(), e);
+                long deadline = System.currentTimeMillis() + (retryOrders.isEmpty() ? retryBudget : 0);
+                for (OrderEvent event : eventList) {
+                    RuntimeException failure = saveWithRetry(event.voucherOrder, deadline);
+                    event.saved = failure == null;
+                    event.deadLettered = failure != null && !isTransient(failure) && moveToDeadLetter(event.voucherOrder, failure);
+                }
+            } finally {
+                eventList.clear();
+                voucherOrderList.clear();
+            }
+        }
+        
+        // Back off while the DB is unavailable, the full ring rejects the new requests meanwhile
+        //  A failure that a retry cannot fix, e.g. the insufficient stock or a constraint, fails at once
+        //  Returns the last failure, null if the order is saved
+        private RuntimeException saveWithRetry(VoucherOrder voucherOrder, long deadline) {
+            long backoff = retryBackoff;
+            for (int i = 0; ; i++) {
+                try {
+                    persister.accept(Collections.singletonList(voucherOrder));
+                    return null;
+                } catch (RuntimeException e) {
+                    if (!isTransient(e)) {
+                        log.error("Failed to save order {}, the failure is not transient", voucherOrder, e);
+                        return e;
+                    }
+                    if (i >= maxRetries || System.currentTimeMillis() + backoff > deadline) {
+                        log.error("Failed to save order {} after {} retries, retry it later", voucherOrder, i, e);
+                        return e;
+                    }
+                    log.warn("Failed to save order {}, retry in {} ms", voucherOrder, backoff);
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(backoff);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return e;
+                    }
+                    backoff *= 2;
+                }
+            }
+        }
+    }
+    
+    // A lock wait timeout, a deadlock or a lost connection may pass on a retry, found in the causes as MyBatis wraps them
+    private static boolean isTransient(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TransientDataAccessException || cause instanceof RecoverableDataAccessException
+                || cause instanceof DataAccessResourceFailureException || cause instanceof CannotCreateTransactionException
+                || cause instanceof SQLTransientException || cause instanceof SQLRecoverableException) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Returns false if the dead letter fails too, the order is retried later then
+    private boolean moveToDeadLetter(VoucherOrder voucherOrder, RuntimeException failure) {
+        try {
+            deadLetter.accept(voucherOrder, failure);
+            deadLetterCount.increment();
+            return true;
+        } catch (RuntimeException e) {
+            log.error("Failed to move order {} to the dead letter", voucherOrder, e);
+            return false;
+        }
+    }
+    
+    // The checkpoint stops before the oldest order being retried, so a restart replays it from the WAL
+    //  The saved orders after it are replayed too, they are skipped by id
+    private class NotificationHandler implements EventHandler<OrderEvent> {
+        private long walPosition = -1;
+        
+        @Override
+        public void onEvent(OrderEvent event, long sequence, boolean endOfBatch) {
+            if (event.saved) {
+                savedCount.increment();
+            } else if (event.valid && !event.deadLettered) {
+                failedCount.increment();
+                retryOrders.addLast(new RetryOrder(event.voucherOrder, walPosition));
+            }
+            if (event.walPosition > walPosition) {
+                walPosition = event.walPosition;
+            }
+            if (endOfBatch && walPosition > 0) {
+                RetryOrder oldest = retryOrders.peekFirst();
+                seckillOrderWal.checkpoint(oldest != null ? oldest.checkpoint : walPosition);
+            }
+        }
+    }
+    
+    // Retry the orders not saved on a DB outage, in the WAL order, and stop at the first one still failing on it
+    //  An order failing for good meanwhile goes to the dead letter, the next batch checkpoints past the orders done
+    @Scheduled(fixedDelayString = "${hmdp.seckill.pipeline.retry-interval:10000}")
+    public void retryFailedOrders() {
+        for (RetryOrder retryOrder; (retryOrder = retryOrders.peekFirst()) != null; ) {
+            try {
+                persister.accept(Collections.singletonList(retryOrder.voucherOrder));
+                retriedCount.increment();
+            } catch (RuntimeException e) {
+                if (isTransient(e) || !moveToDeadLetter(retryOrder.voucherOrder, e)) {
+                    log.warn("Failed to retry order {}, {} orders are waiting", retryOrder.voucherOrder, retryOrders.size());
+                    return;
+                }
+            }
+            retryOrders.pollFirst();
+        }
+    }
+    
+    private static class LogExceptionHandler implements ExceptionHandler<OrderEvent> {
+        @Override
+        public void handleEventException(Throwable ex, long sequence, OrderEvent event) {
+            log.error("Seckill order pipeline exception, sequence is {}", sequence, ex);
+        }
+        
+        @Override
+        public void handleOnStartException(Throwable ex) {
+            log.error("Seckill order pipeline start exception", ex);
+        }
+        
+        @Override
+        public void handleOnShutdownException(Throwable ex) {
+            log.error("Seckill order pipeline shutdown exception", ex);
+        }
+    }
+}
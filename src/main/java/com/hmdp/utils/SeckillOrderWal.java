@@ -0,0 +1,332 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ObjLongConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Feat: Append-only write-ahead log of the seckill orders in memory-mapped segments, an order is logged before it is acknowledged
+//  A flusher forces the written pages every flush interval, so the appends waiting for the disk share one fsync
+//  The pipeline checkpoints the end of the orders it has handled, the recovery replays the orders after the checkpoint
+//  A position is global, segment n covers [n * segmentSize, (n + 1) * segmentSize), a record never spans two segments
+@Slf4j
+@Component
+public class SeckillOrderWal {
+    // orderId, userId, voucherId, crc of the three, padding, a zero order id marks the unused space of a segment
+    private static final int RECORD_SIZE = 32;
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    
+    @Value("${hmdp.seckill.wal.enabled:false}")
+    private boolean enabled;
+    @Value("${hmdp.seckill.wal.dir:wal/seckill-order}")
+    private String dir;
+    @Value("${hmdp.seckill.wal.segment-size:67108864}")
+    private long segmentSize;
+    @Value("${hmdp.seckill.wal.flush-interval:1000}")
+    private long flushInterval;
+    @Value("${hmdp.seckill.wal.sync:true}")
+    private boolean sync;
+    
+    private Path dirPath;
+    private FileChannel checkpointChannel;
+    private volatile MappedByteBuffer segment;
+    private volatile long segmentBase;
+    
+    // Written by the appender under the lock, forced by the flusher, checkpointed by the pipeline
+    private volatile long writePosition;
+    private volatile long forcedPosition;
+    private volatile long checkpointPosition;
+    private volatile boolean isRunning;
+    private Thread flusher;
+    
+    private final Object flushMonitor = new Object();
+    private final CRC32 crc32 = new CRC32();
+    private final LongAdder appendedCount = new LongAdder();
+    private final LongAdder appendNanos = new LongAdder();
+    private final LongAdder forceCount = new LongAdder();
+    private final LongAdder recoveredCount = new LongAdder();
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    // Replay the orders after the checkpoint, then continue to write after the last valid record
+    public synchronized void open(ObjLongConsumer<VoucherOrder> recovered) {
+        try {
+            dirPath = Paths.get(dir);
+            Files.createDirectories(dirPath);
+            checkpointChannel = FileChannel.open(dirPath.resolve(CHECKPOINT_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long checkpoint = readCheckpoint();
+            checkpointPosition = checkpoint;
+            
+            // The replayed orders may be checkpointed meanwhile, the scan keeps the checkpoint read at the start
+            long position = checkpoint;
+            for (long base : segmentBases()) {
+                if (base + segmentSize <= checkpoint) {
+                    continue;
+                }
+                position = recover(base, Math.max(checkpoint, base), recovered);
+            }
+            writePosition = position;
+            forcedPosition = position;
+            mapSegment(position - position % segmentSize);
+            clearTail(position);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open the seckill order WAL in " + dir, e);
+        }
+        
+        isRunning = true;
+        flusher = new Thread(this::flushLoop, "seckill-order-wal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("Seckill order WAL is opened, checkpoint is {}, write position is {}, {} orders are recovered",
+            checkpointPosition, writePosition, recoveredCount.sum());
+    }
+    
+    // Returns the position after the record, the caller keeps the append and the publish in the same order
+    public synchronized long append(long orderId, long userId, long voucherId) {
+        long begin = System.nanoTime();
+        if (writePosition + RECORD_SIZE > segmentBase + segmentSize) {
+            roll();
+        }
+        
+        int offset = (int) (writePosition - segmentBase);
+        segment.putLong(offset, orderId);
+        segment.putLong(offset + 8, userId);
+        segment.putLong(offset + 16, voucherId);
+        segment.putInt(offset + 24, crc(orderId, userId, voucherId));
+        writePosition += RECORD_SIZE;
+        
+        appendedCount.increment();
+        appendNanos.add(System.nanoTime() - begin);
+        return writePosition;
+    }
+    
+    // Wait for the flusher to force the record, the appends of a flush interval share one force
+    public void awaitDurable(long position) {
+        if (!sync) {
+            return;
+        }
+        synchronized (flushMonitor) {
+            while (forcedPosition < position && isRunning) {
+                try {
+                    flushMonitor.wait(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+    
+    // The checkpoint is not forced, a lost checkpoint only replays the orders that are already saved and skipped by id
+    public void checkpoint(long position) {
+        if (position <= checkpointPosition) {
+            return;
+        }
+        long previous = checkpointPosition;
+        checkpointPosition = position;
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(8).putLong(0, position);
+            checkpointChannel.write(buffer, 0);
+        } catch (IOException e) {
+            log.error("Failed to write the checkpoint {} of the seckill order WAL", position, e);
+        }
+        
+        // The segments before the checkpoint are no longer needed
+        if (position / segmentSize > previous / segmentSize) {
+            deleteSegmentsBefore(position - position % segmentSize);
+        }
+    }
+    
+    // The flusher takes the append lock, so it is joined outside of it
+    public void close() {
+        synchronized (this) {
+            if (!isRunning) {
+                return;
+            }
+            isRunning = false;
+        }
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(1));
+            synchronized (this) {
+                segment.force();
+                checkpointChannel.force(false);
+                checkpointChannel.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.error("Failed to close the seckill order WAL", e);
+        }
+        log.info("Seckill order WAL is closed, checkpoint is {}, write position is {}", checkpointPosition, writePosition);
+    }
+    
+    private void flushLoop() {
+        while (isRunning) {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(flushInterval));
+            // Take the position and its segment together under the append lock, a rolled segment is forced by the roll,
+            //  so forcing the segment of the position covers every record before it
+            MappedByteBuffer current;
+            long position;
+            synchronized (this) {
+                current = segment;
+                position = writePosition;
+            }
+            if (position > forcedPosition) {
+                current.force();
+                forceCount.increment();
+            }
+            advanceForcedPosition(position);
+        }
+        synchronized (flushMonitor) {
+            flushMonitor.notifyAll();
+        }
+    }
+    
+    // Both the flusher and the roll advance the forced position, it never moves back
+    private void advanceForcedPosition(long position) {
+        synchronized (flushMonitor) {
+            if (position > forcedPosition) {
+                forcedPosition = position;
+            }
+            flushMonitor.notifyAll();
+        }
+    }
+    
+    private void roll() {
+        segment.force();
+        advanceForcedPosition(writePosition);
+        try {
+            mapSegment(segmentBase + segmentSize);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to roll the seckill order WAL at " + writePosition, e);
+        }
+        writePosition = segmentBase;
+    }
+    
+    // The records after a torn record were written before the crash, they must not come back once the torn one is overwritten
+    private void clearTail(long position) {
+        for (int offset = (int) (position - segmentBase); offset + 8 <= segmentSize; offset += 8) {
+            segment.putLong(offset, 0);
+        }
+        segment.force();
+    }
+    
+    // The mapping of the previous segment is released by the GC, the file is pre-allocated with zeros
+    private void mapSegment(long base) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segmentPath(base).toFile(), "rw")) {
+            if (file.length() < segmentSize) {
+                file.setLength(segmentSize);
+            }
+            segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            segmentBase = base;
+        }
+    }
+    
+    // Returns the position after the last valid record, a torn record ends the segment
+    private long recover(long base, long from, ObjLongConsumer<VoucherOrder> recovered) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(base), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), segmentSize));
+            long position = from;
+            while (position - base + RECORD_SIZE <= buffer.capacity()) {
+                int offset = (int) (position - base);
+                long orderId = buffer.getLong(offset);
+                long userId = buffer.getLong(offset + 8);
+                long voucherId = buffer.getLong(offset + 16);
+                if (orderId == 0 || buffer.getInt(offset + 24) != crc(orderId, userId, voucherId)) {
+                    break;
+                }
+                position += RECORD_SIZE;
+                recovered.accept(new VoucherOrder().setId(orderId).setUserId(userId).setVoucherId(voucherId), position);
+                recoveredCount.increment();
+            }
+            return position;
+        }
+    }
+    
+    private long readCheckpoint() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8);
+        if (checkpointChannel.read(buffer, 0) < 8) {
+            return 0;
+        }
+        return buffer.getLong(0);
+    }
+    
+    private List<Long> segmentBases() throws IOException {
+        try (Stream<Path> paths = Files.list(dirPath)) {
+            return paths.map((path) -> path.getFileName().toString())
+                .filter((name) -> name.endsWith(SEGMENT_SUFFIX))
+                .map((name) -> Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+    
+    private void deleteSegmentsBefore(long base) {
+        try {
+            for (long segmentBase : segmentBases()) {
+                if (segmentBase < base) {
+                    Files.deleteIfExists(segmentPath(segmentBase));
+                }
+            }
+        } catch (IOException e) {
+            log.error("Failed to delete the segments of the seckill order WAL before {}", base, e);
+        }
+    }
+    
+    private Path segmentPath(long base) {
+        return dirPath.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX));
+    }
+    
+    // Called by the appender under the lock and by the recovery before the appends begin
+    private int crc(long orderId, long userId, long voucherId) {
+        crc32.reset();
+        update(orderId);
+        update(userId);
+        update(voucherId);
+        return (int) crc32.getValue();
+    }
+    
+    private void update(long value) {
+        for (int i = 56; i >= 0; i -= 8) {
+            crc32.update((int) (value >>> i));
+        }
+    }
+    
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("writePosition", writePosition);
+        metrics.put("forcedPosition", forcedPosition);
+        metrics.put("checkpointPosition", checkpointPosition);
+        metrics.put("appended", appendedCount.sum());
+        long appended = appendedCount.sum();
+        metrics.put("avgAppendNanos", appended > 0 ? appendNanos.sum() / appended : 0);
+        metrics.put("forces", forceCount.sum());
+        metrics.put("recovered", recoveredCount.sum());
+        return metrics;
+    }
+}
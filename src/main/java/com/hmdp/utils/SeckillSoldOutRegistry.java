@@ -0,0 +1,93 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+// Feat: Sold out vouchers of this node, the requests after the sell-out are rejected without any I/O
+//  A node that sees the stock run out broadcasts it with Redis's pub/sub, a replenishment broadcasts a reset
+//  The flag expires after a while, so a sold-out message overtaking a reset does not reject the new stock for good
+@Slf4j
+@Component
+public class SeckillSoldOutRegistry implements MessageListener {
+    private static final String SOLD_OUT = "soldOut:";
+    private static final String RESET = "reset:";
+    
+    @Autowired
+    StringRedisTemplate stringRedisTemplate;
+    
+    @Value("${hmdp.seckill.sold-out.ttl:60000}")
+    private long ttl;
+    
+    // Voucher id -> expire time of the flag in ms
+    private final Map<Long, Long> soldOutMap = new ConcurrentHashMap<>();
+    private final LongAdder rejectedCount = new LongAdder();
+    
+    public boolean isSoldOut(Long voucherId) {
+        Long expireTime = soldOutMap.get(voucherId);
+        if (expireTime == null) {
+            return false;
+        }
+        if (expireTime < System.currentTimeMillis()) {
+            soldOutMap.remove(voucherId, expireTime);
+            return false;
+        }
+        rejectedCount.increment();
+        return true;
+    }
+    
+    // Call when the stock is found insufficient, a node that has already flagged the voucher does not broadcast again
+    public void markSoldOut(Long voucherId) {
+        if (soldOutMap.put(voucherId, System.currentTimeMillis() + ttl) == null) {
+            log.info("Voucher {} is sold out", voucherId);
+            publish(SOLD_OUT + voucherId);
+        }
+    }
+    
+    // Call after the stock is replenished
+    public void reset(Long voucherId) {
+        soldOutMap.remove(voucherId);
+        publish(RESET + voucherId);
+    }
+    
+    private void publish(String message) {
+        try {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, message);
+        } catch (RuntimeException e) {
+            log.error("Failed to publish {}", message, e);
+        }
+    }
+    
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            if (body.startsWith(SOLD_OUT)) {
+                soldOutMap.put(Long.valueOf(body.substring(SOLD_OUT.length())), System.currentTimeMillis() + ttl);
+            } else if (body.startsWith(RESET)) {
+                soldOutMap.remove(Long.valueOf(body.substring(RESET.length())));
+            }
+        } catch (NumberFormatException e) {
+            log.error("Invalid sold-out message {}", body);
+        }
+    }
+    
+    public Map<String, Object> metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("soldOutVouchers", soldOutMap.keySet());
+        metrics.put("rejected", rejectedCount.sum());
+        return metrics;
+    }
+}
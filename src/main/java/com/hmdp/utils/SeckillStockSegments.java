@@ -0,0 +1,157 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+// Feat: Split the stock of a seckill voucher into buckets, so the buyers do not serialize on one stock key
+//  Bucket b lives in seckill:stock:{voucherId:b} and seckill:order:{voucherId:b}, the hash tags spread the buckets over the shards
+//  A user takes the stock of the bucket picked by its id, and falls over to the sibling buckets when it is empty
+//  The orders are always recorded in the bucket of the user, so the duplicate orders are still rejected across the buckets
+@Slf4j
+@Component
+public class SeckillStockSegments {
+    @Autowired
+    StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    RedisShardRouter redisShardRouter;
+    
+    @Value("${hmdp.seckill.stock.segments:1}")
+    private int defaultSegments;
+    
+    private static final DefaultRedisScript<Long> HOME_SCRIPT;
+    private static final DefaultRedisScript<Long> TAKE_SCRIPT;
+    private static final DefaultRedisScript<Long> RESTORE_SCRIPT;
+    static {
+        HOME_SCRIPT = new DefaultRedisScript<>();
+        HOME_SCRIPT.setLocation(new ClassPathResource("SeckillSegmentHome.lua"));
+        HOME_SCRIPT.setResultType(Long.class);
+        TAKE_SCRIPT = new DefaultRedisScript<>();
+        TAKE_SCRIPT.setLocation(new ClassPathResource("SeckillSegmentTake.lua"));
+        TAKE_SCRIPT.setResultType(Long.class);
+        RESTORE_SCRIPT = new DefaultRedisScript<>();
+        RESTORE_SCRIPT.setLocation(new ClassPathResource("SeckillRestore.lua"));
+        RESTORE_SCRIPT.setResultType(Long.class);
+    }
+    
+    // The segments of a voucher never change once it is created
+    private final Map<Long, Integer> segmentsMap = new ConcurrentHashMap<>();
+    
+    // The vouchers created before the segmentation have no segments key, they keep the single stock key
+    //  A missing segments key is only cached for such a voucher, a request for a voucher not created yet must not pin
+    //  this node to the single stock key
+    public int segmentsOf(Long voucherId) {
+        Integer segments = segmentsMap.get(voucherId);
+        if (segments != null) {
+            return segments;
+        }
+        String value = stringRedisTemplate.opsForValue().get(SECKILL_SEGMENTS_KEY + "{" + voucherId + "}");
+        if (value != null) {
+            segments = Integer.parseInt(value);
+        } else if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(SECKILL_STOCK_KEY + voucherId))) {
+            segments = 1;
+        } else {
+            return 1;
+        }
+        segmentsMap.put(voucherId, segments);
+        return segments;
+    }
+    
+    // Save the stock of a new voucher, the buckets are written before the segments key which makes them visible
+    public void init(Long voucherId, int stock) {
+        int segments = Math.max(defaultSegments, 1);
+        if (segments == 1) {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucherId, String.valueOf(stock));
+        } else {
+            for (int b = 0; b < segments; b++) {
+                String stockKey = stockKey(voucherId, b);
+                redisShardRouter.stringTemplate(stockKey).opsForValue().set(stockKey, String.valueOf(share(stock, segments, b)));
+            }
+        }
+        stringRedisTemplate.opsForValue().set(SECKILL_SEGMENTS_KEY + "{" + voucherId + "}", String.valueOf(segments));
+        segmentsMap.put(voucherId, segments);
+    }
+    
+    public void replenish(Long voucherId, int amount) {
+        int segments = segmentsOf(voucherId);
+        if (segments == 1) {
+            stringRedisTemplate.opsForValue().increment(SECKILL_STOCK_KEY + voucherId, amount);
+            return;
+        }
+        for (int b = 0; b < segments; b++) {
+            int share = share(amount, segments, b);
+            if (share > 0) {
+                String stockKey = stockKey(voucherId, b);
+                redisShardRouter.stringTemplate(stockKey).opsForValue().increment(stockKey, share);
+            }
+        }
+    }
+    
+    // Same result as the seckill scripts, 0 is success, 1 is insufficient stock, 2 is a duplicate order
+    public int deduct(Long voucherId, Long userId) {
+        int segments = segmentsOf(voucherId);
+        int home = Math.floorMod(userId.hashCode(), segments);
+        String homeStockKey = stockKey(voucherId, home);
+        String homeOrderKey = orderKey(voucherId, home);
+        StringRedisTemplate homeTemplate = redisShardRouter.stringTemplate(homeStockKey);
+        int res = homeTemplate.execute(HOME_SCRIPT, Arrays.asList(homeStockKey, homeOrderKey), userId.toString()).intValue();
+        if (res != 1) {
+            return res;
+        }
+        
+        for (int i = 1; i < segments; i++) {
+            String stockKey = stockKey(voucherId, (home + i) % segments);
+            StringRedisTemplate template = redisShardRouter.stringTemplate(stockKey);
+            if (template.execute(TAKE_SCRIPT, Collections.singletonList(stockKey)) != 0) {
+                continue;
+            }
+            
+            // Another request of the user may have got the stock meanwhile, give the stock back to the bucket
+            Long added = homeTemplate.opsForSet().add(homeOrderKey, userId.toString());
+            if (added == null || added == 0) {
+                template.opsForValue().increment(stockKey);
+                return 2;
+            }
+            return 0;
+        }
+        return 1;
+    }
+    
+    // Undo the deduction of an order that cannot be saved, the user may order again
+    //  The stock goes back to the bucket of the user, whichever bucket it was taken from
+    public boolean restore(Long voucherId, Long userId) {
+        int segments = segmentsOf(voucherId);
+        if (segments == 1) {
+            return stringRedisTemplate.execute(RESTORE_SCRIPT,
+                Arrays.asList(SECKILL_STOCK_KEY + voucherId, SECKILL_ORDER_KEY + voucherId), userId.toString()) == 1;
+        }
+        int home = Math.floorMod(userId.hashCode(), segments);
+        String homeStockKey = stockKey(voucherId, home);
+        return redisShardRouter.stringTemplate(homeStockKey).execute(RESTORE_SCRIPT,
+            Arrays.asList(homeStockKey, orderKey(voucherId, home)), userId.toString()) == 1;
+    }
+    
+    private static String stockKey(Long voucherId, int bucket) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + bucket + "}";
+    }
+    
+    private static String orderKey(Long voucherId, int bucket) {
+        return SECKILL_ORDER_KEY + "{" + voucherId + ":" + bucket + "}";
+    }
+    
+    // The first buckets take the remainder
+    private static int share(int total, int segments, int bucket) {
+        return total / segments + (bucket < total % segments ? 1 : 0);
+    }
+}
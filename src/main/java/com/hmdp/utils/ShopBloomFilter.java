@@ -0,0 +1,135 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.SHOP_BLOOM_FILTER_CHANNEL;
+
+// Feat: In-process Bloom filter of the shop ids, rejects the ids that cannot exist before touching Redis or MySQL
+//  A new shop is added on every node with Redis's pub/sub, the periodic rebuild covers lost messages and deleted shops
+@Slf4j
+@Component
+public class ShopBloomFilter implements MessageListener {
+    @Autowired
+    ShopMapper shopMapper;
+    @Autowired
+    StringRedisTemplate stringRedisTemplate;
+    
+    @Value("${hmdp.bloom-filter.shop.enabled:false}")
+    private boolean enabled;
+    @Value("${hmdp.bloom-filter.shop.expected-insertions:100000}")
+    private long expectedInsertions;
+    @Value("${hmdp.bloom-filter.shop.fpp:0.01}")
+    private double fpp;
+    @Value("${hmdp.bloom-filter.shop.page-size:1000}")
+    private int pageSize;
+    
+    private volatile BloomFilter<Long> bloomFilter;
+    // The filter being rebuilt, ids added meanwhile go to both filters so the swap does not lose them
+    private volatile BloomFilter<Long> rebuildingBloomFilter;
+    
+    private final LongAdder rejectedCount = new LongAdder();
+    
+    // Allow every id until the first build completes
+    public boolean mightContain(Long id) {
+        BloomFilter<Long> current = bloomFilter;
+        if (!enabled || current == null || id == null) {
+            return true;
+        }
+        if (current.mightContain(id)) {
+            return true;
+        }
+        rejectedCount.increment();
+        return false;
+    }
+    
+    public void put(Long id) {
+        BloomFilter<Long> current = bloomFilter;
+        if (current != null) {
+            current.put(id);
+        }
+        BloomFilter<Long> rebuilding = rebuildingBloomFilter;
+        if (rebuilding != null) {
+            rebuilding.put(id);
+        }
+    }
+    
+    // Add the id locally and notify the other nodes to add it
+    public void publishPut(Long id) {
+        put(id);
+        stringRedisTemplate.convertAndSend(SHOP_BLOOM_FILTER_CHANNEL, id.toString());
+    }
+    
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        put(Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8)));
+    }
+    
+    // Stream the ids page by page with the keyset pagination, then swap the filter
+    //  Runs on startup, a failed build keeps the previous filter
+    @Scheduled(initialDelay = 0, fixedDelayString = "${hmdp.bloom-filter.shop.rebuild-interval:3600000}")
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        
+        long begin = System.currentTimeMillis();
+        try {
+            // Leave room for the shops added before the next rebuild
+            long count = shopMapper.selectCount(null);
+            BloomFilter<Long> newBloomFilter = BloomFilter.create(Funnels.longFunnel(), Math.max(expectedInsertions, count * 2), fpp);
+            rebuildingBloomFilter = newBloomFilter;
+            
+            long lastId = 0;
+            while (true) {
+                List<Object> idList = shopMapper.selectObjs(new LambdaQueryWrapper<Shop>()
+                    .select(Shop::getId)
+                    .gt(Shop::getId, lastId)
+                    .orderByAsc(Shop::getId)
+                    .last("limit " + pageSize));
+                if (idList.isEmpty()) {
+                    break;
+                }
+                for (Object id : idList) {
+                    newBloomFilter.put(((Number) id).longValue());
+                }
+                lastId = ((Number) idList.get(idList.size() - 1)).longValue();
+            }
+            
+            bloomFilter = newBloomFilter;
+            log.info("Shop Bloom filter is rebuilt in {} ms, {} shops", System.currentTimeMillis() - begin, newBloomFilter.approximateElementCount());
+        } catch (RuntimeException e) {
+            log.error("Failed to rebuild shop Bloom filter", e);
+        } finally {
+            rebuildingBloomFilter = null;
+        }
+    }
+    
+    public Map<String, Object> metrics() {
+        BloomFilter<Long> current = bloomFilter;
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("ready", current != null);
+        metrics.put("approximateElementCount", current != null ? current.approximateElementCount() : 0);
+        metrics.put("expectedFpp", current != null ? current.expectedFpp() : 0);
+        metrics.put("rejectedCount", rejectedCount.sum());
+        return metrics;
+    }
+}
@@ -0,0 +1,125 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopTypeMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+// Feat: Immutable snapshot of the shop type list with its response body serialized once, swapped when the version in Redis changes
+//  A change is pushed with Redis's pub/sub, the polling covers lost messages, the request path does no Redis I/O and no JSON work
+@Slf4j
+@Component
+public class ShopTypeSnapshot implements MessageListener {
+    @Autowired
+    ShopTypeMapper shopTypeMapper;
+    @Autowired
+    CacheUtils cacheUtils;
+    @Autowired
+    StringRedisTemplate stringRedisTemplate;
+    @Autowired
+    ObjectMapper objectMapper;
+    
+    private volatile Snapshot snapshot;
+    
+    // The shop types are shared by all callers, they should be treated as read-only
+    public List<ShopType> getShopTypeList() {
+        return current().shopTypeList;
+    }
+    
+    public byte[] getBody() {
+        return current().body;
+    }
+    
+    public long getVersion() {
+        Snapshot current = snapshot;
+        return current != null ? current.version : -1;
+    }
+    
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            refresh();
+            current = snapshot;
+        }
+        return current;
+    }
+    
+    // Rebuild the snapshot only if the version has changed, read the version first so a change during the load is not missed
+    public synchronized void refresh() {
+        String versionStr = stringRedisTemplate.opsForValue().get(SHOP_TYPE_VERSION_KEY);
+        long version = versionStr != null ? Long.parseLong(versionStr) : 0;
+        if (snapshot != null && snapshot.version == version) {
+            return;
+        }
+        
+        List<ShopType> shopTypeList = loadShopTypeList();
+        try {
+            byte[] body = objectMapper.writeValueAsBytes(Result.ok(shopTypeList));
+            snapshot = new Snapshot(version, Collections.unmodifiableList(shopTypeList), body);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+        log.info("Shop type snapshot is refreshed, version is {}, {} shop types", version, shopTypeList.size());
+    }
+    
+    private List<ShopType> loadShopTypeList() {
+        // Query data from cache
+        List<ShopType> shopTypeList = cacheUtils.getList(CACHE_SHOP_TYPE_LIST_KEY, ShopType.class);
+        if (shopTypeList != null && !shopTypeList.isEmpty()) {
+            return shopTypeList;
+        }
+        
+        // Query data from DB, save data to cache
+        shopTypeList = shopTypeMapper.selectList(null);
+        cacheUtils.set(CACHE_SHOP_TYPE_LIST_KEY, shopTypeList, CACHE_SHOP_TYPE_LIST_TTL, TimeUnit.MINUTES);
+        return shopTypeList;
+    }
+    
+    // Call after changing tb_shop_type, drop the cache before bumping the version so every node reloads from DB
+    public long publishChange() {
+        cacheUtils.evict(CACHE_SHOP_TYPE_LIST_KEY);
+        Long version = stringRedisTemplate.opsForValue().increment(SHOP_TYPE_VERSION_KEY);
+        stringRedisTemplate.convertAndSend(SHOP_TYPE_VERSION_CHANNEL, String.valueOf(version));
+        return version;
+    }
+    
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        refresh();
+    }
+    
+    @Scheduled(fixedDelayString = "${hmdp.shop-type.snapshot.poll-interval:30000}")
+    public void poll() {
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            log.error("Failed to refresh shop type snapshot, keep version {}", getVersion(), e);
+        }
+    }
+    
+    private static class Snapshot {
+        private final long version;
+        private final List<ShopType> shopTypeList;
+        private final byte[] body;
+        
+        Snapshot(long version, List<ShopType> shopTypeList, byte[] body) {
+            this.version = version;
+            this.shopTypeList = shopTypeList;
+            this.body = body;
+        }
+    }
+}
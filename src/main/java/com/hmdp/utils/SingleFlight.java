@@ -0,0 +1,71 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+// Feat: Coalesce concurrent loads of the same key, only the first caller runs the loader, the others wait on its future
+public class SingleFlight {
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+    
+    public <R> R execute(String key, long timeout, TimeUnit unit, Supplier<R> loader) throws TimeoutException {
+        return execute(key, timeout, timeout, unit, loader, () -> null);
+    }
+    
+    // A waiter still waiting after the timeout takes the fallback if it has one, otherwise it keeps waiting on the same
+    //  call until the max wait, so a slow load is never repeated by the waiters
+    @SuppressWarnings("unchecked")
+    public <R> R execute(String key, long timeout, long maxWait, TimeUnit unit, Supplier<R> loader, Supplier<R> fallback) throws TimeoutException {
+        CompletableFuture<Object> call = new CompletableFuture<>();
+        CompletableFuture<Object> existing = calls.putIfAbsent(key, call);
+        
+        // Another thread is loading the key, wait for its result
+        if (existing != null) {
+            try {
+                return (R) await(existing, timeout, unit);
+            } catch (TimeoutException e) {
+                R res = fallback.get();
+                if (res != null) {
+                    return res;
+                }
+                if (maxWait <= timeout) {
+                    throw e;
+                }
+                return (R) await(existing, maxWait - timeout, unit);
+            }
+        }
+        
+        try {
+            R res = loader.get();
+            call.complete(res);
+            return res;
+        } catch (Throwable e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, call);
+        }
+    }
+    
+    public int inFlightCount() {
+        return calls.size();
+    }
+    
+    private Object await(CompletableFuture<Object> call, long timeout, TimeUnit unit) throws TimeoutException {
+        try {
+            return call.get(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+}
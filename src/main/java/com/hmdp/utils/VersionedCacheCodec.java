@@ -0,0 +1,52 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+
+// Feat: Write with the configured codec, read by the version header, so nodes can switch formats in a rolling upgrade
+//  Deploy with the json codec until every node can read the binary format, then switch to kryo
+@Component
+public class VersionedCacheCodec implements CacheCodec {
+    @Value("${hmdp.cache.codec:json}")
+    private String codecName;
+    
+    private final JsonCacheCodec jsonCacheCodec = new JsonCacheCodec();
+    private final KryoCacheCodec kryoCacheCodec = new KryoCacheCodec();
+    
+    private CacheCodec writer;
+    
+    @PostConstruct
+    private void init() {
+        writer = "kryo".equalsIgnoreCase(codecName) ? kryoCacheCodec : jsonCacheCodec;
+    }
+    
+    @Override
+    public byte[] encode(Object val) {
+        return writer.encode(val);
+    }
+    
+    @Override
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        return readerOf(bytes).decode(bytes, type);
+    }
+    
+    @Override
+    public <R> List<R> decodeList(byte[] bytes, Class<R> elementType) {
+        return readerOf(bytes).decodeList(bytes, elementType);
+    }
+    
+    // JSON text never starts with a control character, so a header cannot be mistaken for legacy data
+    private CacheCodec readerOf(byte[] bytes) {
+        byte header = bytes[0];
+        if (header >= 0x20 || Character.isWhitespace(header)) {
+            return jsonCacheCodec;
+        }
+        if (header == KryoCacheCodec.VERSION) {
+            return kryoCacheCodec;
+        }
+        throw new IllegalStateException("Unknown cache format version " + header);
+    }
+}
@@ -0,0 +1,20 @@
+-- KEYS[1]: pointer to the current filter, KEYS[2]: pointer to the filter being rebuilt
+-- ARGV[1], ARGV[2]: the filters the indexes are computed for, '' for none, the filters may have different sizes
+-- Then for each filter, the number of its indexes followed by the indexes
+for i = 1, #KEYS do
+    if (redis.call('GET', KEYS[i]) or '') ~= ARGV[i] then
+        return -1
+    end
+end
+
+local offset = #KEYS + 1
+for i = 1, #KEYS do
+    local count = tonumber(ARGV[offset])
+    for j = offset + 1, offset + count do
+        -- A saturated counter stays at 15
+        redis.call('BITFIELD', ARGV[i], 'OVERFLOW', 'SAT', 'INCRBY', 'u4', '#' .. ARGV[j], 1)
+    end
+    offset = offset + count + 1
+end
+
+return 1
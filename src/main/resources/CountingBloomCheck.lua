@@ -0,0 +1,18 @@
+-- KEYS[1]: pointer to the current filter
+-- ARGV[1]: the filter the indexes are computed for, '' for none, ARGV[2]: number of the indexes, then the indexes
+if (redis.call('GET', KEYS[1]) or '') ~= ARGV[1] then
+    return -1
+end
+
+-- Allow every item until the first build completes
+if ARGV[1] == '' then
+    return 1
+end
+
+for i = 3, #ARGV do
+    if redis.call('BITFIELD', ARGV[1], 'GET', 'u4', '#' .. ARGV[i])[1] == 0 then
+        return 0
+    end
+end
+
+return 1
@@ -0,0 +1,28 @@
+-- KEYS[1]: pointer to the current filter, a filter being rebuilt is left alone
+-- ARGV[1]: the filter the indexes are computed for, '' for none, ARGV[2]: number of the indexes, then the indexes
+-- The caller only removes the items confirmed to have been added
+if (redis.call('GET', KEYS[1]) or '') ~= ARGV[1] then
+    return -1
+end
+
+if ARGV[1] == '' then
+    return 0
+end
+
+-- A zero counter proves the item was never added, skip it, a false positive still passes this check
+local counters = {}
+for i = 3, #ARGV do
+    counters[i] = redis.call('BITFIELD', ARGV[1], 'GET', 'u4', '#' .. ARGV[i])[1]
+    if counters[i] == 0 then
+        return 0
+    end
+end
+
+for i = 3, #ARGV do
+    -- A saturated counter has lost its count, keep it
+    if counters[i] < 15 then
+        redis.call('BITFIELD', ARGV[1], 'INCRBY', 'u4', '#' .. ARGV[i], -1)
+    end
+end
+
+return 1
@@ -0,0 +1,12 @@
+-- KEYS[1]: pointer to the current filter, KEYS[2]: pointer to the filter being rebuilt
+-- ARGV[1]: key of the rebuilt filter, ARGV[2]: seconds to keep the old filter for the in-flight checks
+local oldKey = redis.call('GET', KEYS[1])
+
+redis.call('SET', KEYS[1], ARGV[1])
+redis.call('DEL', KEYS[2])
+
+if oldKey and oldKey ~= ARGV[1] then
+    redis.call('EXPIRE', oldKey, ARGV[2])
+end
+
+return 1
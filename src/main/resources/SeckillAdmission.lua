@@ -0,0 +1,20 @@
+-- Sliding window counters, the count of the previous window is weighted by its part still inside the sliding window
+-- KEYS[1], KEYS[2] are the current and previous windows of the voucher, KEYS[3], KEYS[4] are those of the user
+-- ARGV[1] is the window in ms, ARGV[2] is the elapsed ms of the current window, ARGV[3], ARGV[4] are the limits
+local window = tonumber(ARGV[1])
+local weight = (window - tonumber(ARGV[2])) / window
+
+for i = 0, 1 do
+    local current = tonumber(redis.call('GET', KEYS[i * 2 + 1]) or '0')
+    local previous = tonumber(redis.call('GET', KEYS[i * 2 + 2]) or '0')
+    if previous * weight + current >= tonumber(ARGV[i + 3]) then
+        return i + 1
+    end
+end
+
+-- Admitted, count the request in the current windows, they are kept until they are no longer the previous windows
+for i = 0, 1 do
+    redis.call('INCR', KEYS[i * 2 + 1])
+    redis.call('PEXPIRE', KEYS[i * 2 + 1], window * 2)
+end
+return 0
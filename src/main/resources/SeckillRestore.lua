@@ -0,0 +1,10 @@
+-- KEYS[1] is the stock key of the user, KEYS[2] is its order set, ARGV[1] is the user id
+-- Give back the stock of an order that cannot be saved, only an order still recorded gives it back, so restoring twice is harmless
+
+if redis.call('SREM', KEYS[2], ARGV[1]) == 0 then
+    return 0
+end
+
+-- Inventory restoration
+redis.call('INCRBY', KEYS[1], 1)
+return 1
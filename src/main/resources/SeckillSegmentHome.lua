@@ -0,0 +1,19 @@
+-- KEYS[1] is the stock bucket of the user, KEYS[2] is the order set of the bucket, ARGV[1] is the user id
+-- A user always hashes to the same bucket, so its order set is enough to reject the duplicate orders
+
+-- Determine whether the user repeats the order, a person is only allowed to get one voucher
+if redis.call('SISMEMBER', KEYS[2], ARGV[1]) == 1 then
+    return 2
+end
+
+-- Determine whether the stock of the bucket is sufficient, the caller falls over to the sibling buckets
+local stock = tonumber(redis.call('GET', KEYS[1]))
+if stock == nil or stock <= 0 then
+    return 1
+end
+
+-- Inventory reduction
+redis.call('DECRBY', KEYS[1], 1)
+-- Generate order
+redis.call('SADD', KEYS[2], ARGV[1])
+return 0
@@ -0,0 +1,9 @@
+-- KEYS[1] is a sibling stock bucket, the order is recorded in the bucket of the user by the caller
+local stock = tonumber(redis.call('GET', KEYS[1]))
+if stock == nil or stock <= 0 then
+    return 1
+end
+
+-- Inventory reduction
+redis.call('DECRBY', KEYS[1], 1)
+return 0
@@ -5,7 +5,9 @@ local stockKey = 'seckill:stock:' .. voucherId
 local orderKey = 'seckill:order:' .. voucherId
 
 -- Determine whether the stock is sufficient.
-if tonumber(redis.call('GET', stockKey)) < 0 then
+-- A missing stock key is treated as no stock
+local stock = tonumber(redis.call('GET', stockKey))
+if stock == nil or stock <= 0 then
     return 1
 end
 
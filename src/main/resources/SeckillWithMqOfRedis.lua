@@ -6,7 +6,9 @@ local stockKey = 'seckill:stock:' .. voucherId
 local orderKey = 'seckill:order:' .. voucherId
 
 -- Determine whether the inventory is sufficient.
-if tonumber(redis.call('GET', stockKey)) <= 0 then
+-- A missing stock key is treated as no stock
+local stock = tonumber(redis.call('GET', stockKey))
+if stock == nil or stock <= 0 then
     return 1
 end
 
@@ -16,7 +18,7 @@ if redis.call('SISMEMBER', orderKey, userId) == 1 then
 end
 
 -- Inventory reduction
-redis.call('INCRBY', stockKey, 1)
+redis.call('DECRBY', stockKey, 1)
 -- Generate order
 redis.call('SADD', orderKey, userId)
 redis.call('XADD', 'stream.orders', '*', 'id', orderId, 'userId', userId, 'voucherId', voucherId)
@@ -65,6 +65,22 @@ CREATE TABLE `tb_blog_comments`  (
 -- Records of tb_blog_comments
 -- ----------------------------
 
+-- ----------------------------
+-- Table structure for tb_cache_outbox
+-- ----------------------------
+DROP TABLE IF EXISTS `tb_cache_outbox`;
+CREATE TABLE `tb_cache_outbox`  (
+  `id` bigint(20) UNSIGNED NOT NULL AUTO_INCREMENT COMMENT '主键',
+  `cache_key` varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci NOT NULL COMMENT '要删除的缓存key',
+  `status` tinyint(1) UNSIGNED NOT NULL DEFAULT 0 COMMENT '0,待延迟双删; 1,失败',
+  `retry_count` int(8) UNSIGNED NOT NULL DEFAULT 0 COMMENT '重试次数',
+  `next_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '下次处理时间',
+  `create_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+  `update_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+  PRIMARY KEY (`id`) USING BTREE,
+  INDEX `idx_status_next_time`(`status`, `next_time`) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Compact;
+
 -- ----------------------------
 -- Table structure for tb_follow
 -- ----------------------------
@@ -0,0 +1,110 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SeckillOrderWalTests {
+    // 10 records of 32 bytes per segment
+    private static final long SEGMENT_SIZE = 320;
+    
+    @TempDir
+    Path dir;
+    
+    private SeckillOrderWal open(List<Long> recoveredIds) {
+        SeckillOrderWal wal = new SeckillOrderWal();
+        ReflectionTestUtils.setField(wal, "enabled", true);
+        ReflectionTestUtils.setField(wal, "dir", dir.toString());
+        ReflectionTestUtils.setField(wal, "segmentSize", SEGMENT_SIZE);
+        ReflectionTestUtils.setField(wal, "flushInterval", 100L);
+        ReflectionTestUtils.setField(wal, "sync", true);
+        wal.open((voucherOrder, position) -> recoveredIds.add(voucherOrder.getId()));
+        return wal;
+    }
+    
+    private static List<Long> ids(long from, long to) {
+        List<Long> ids = new ArrayList<>();
+        for (long id = from; id <= to; id++) {
+            ids.add(id);
+        }
+        return ids;
+    }
+    
+    @Test
+    void recoverAfterCheckpointAcrossSegments() {
+        SeckillOrderWal wal = open(new ArrayList<>());
+        long position = 0;
+        for (long id = 1; id <= 25; id++) {
+            position = wal.append(id, id * 10, 1);
+        }
+        wal.awaitDurable(position);
+        wal.checkpoint(12 * 32);
+        // Crash without closing
+        
+        List<Long> recoveredIds = new ArrayList<>();
+        SeckillOrderWal reopened = open(recoveredIds);
+        assertEquals(ids(13, 25), recoveredIds);
+        assertEquals(25 * 32 + 32, reopened.append(26, 260, 1));
+        reopened.close();
+    }
+    
+    @Test
+    void tornRecordEndsRecovery() throws Exception {
+        SeckillOrderWal wal = open(new ArrayList<>());
+        long position = 0;
+        for (long id = 1; id <= 8; id++) {
+            position = wal.append(id, id * 10, 1);
+        }
+        wal.close();
+        
+        // Tear the 6th record, its crc no longer matches
+        try (RandomAccessFile file = new RandomAccessFile(segmentFiles().get(0).toFile(), "rw")) {
+            file.seek(5 * 32 + 8);
+            file.writeLong(12345);
+        }
+        
+        List<Long> recoveredIds = new ArrayList<>();
+        SeckillOrderWal reopened = open(recoveredIds);
+        assertEquals(ids(1, 5), recoveredIds);
+        // The next append overwrites the torn record
+        assertEquals(6 * 32, reopened.append(6, 60, 1));
+        reopened.close();
+        
+        recoveredIds.clear();
+        open(recoveredIds).close();
+        assertEquals(ids(1, 6), recoveredIds);
+        assertEquals(8 * 32, position);
+    }
+    
+    @Test
+    void checkpointDeletesPassedSegments() throws Exception {
+        SeckillOrderWal wal = open(new ArrayList<>());
+        for (long id = 1; id <= 35; id++) {
+            wal.append(id, id * 10, 1);
+        }
+        assertEquals(4, segmentFiles().size());
+        wal.checkpoint(21 * 32);
+        assertEquals(2, segmentFiles().size());
+        wal.close();
+        
+        List<Long> recoveredIds = new ArrayList<>();
+        open(recoveredIds).close();
+        assertEquals(ids(22, 35), recoveredIds);
+    }
+    
+    private List<Path> segmentFiles() throws Exception {
+        try (Stream<Path> paths = Files.list(dir)) {
+            return paths.filter((path) -> path.toString().endsWith(".wal")).sorted().collect(Collectors.toList());
+        }
+    }
+}